@@ -1,5 +1,8 @@
 package es.alepico.epuber.app;
 
+import es.alepico.epuber.service.MetadataCache;
+import es.alepico.epuber.service.MetadataStore;
+import es.alepico.epuber.service.OnlineLookupCache;
 import es.alepico.epuber.ui.common.Styles;
 import es.alepico.epuber.ui.tabs.*;
 import javafx.application.Application;
@@ -7,18 +10,28 @@ import javafx.scene.Scene;
 import javafx.scene.control.TabPane;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+
 public class App extends Application {
 
     @Override
     public void start(Stage stage) {
         stage.setTitle("EPUBER - Gestor Profesional");
 
+        LibraryTab libraryTab = new LibraryTab(stage);
+        CoversTab coversTab = new CoversTab();
+        DuplicatesTab duplicatesTab = new DuplicatesTab(stage);
+        libraryTab.setOnScanFinished(files -> {
+            coversTab.updateFiles(files);
+            duplicatesTab.updateFiles(files);
+        });
+
         TabPane tabs = new TabPane();
         tabs.getTabs().addAll(
-            new LibraryTab(stage),
+            libraryTab,
             new ConverterTab(stage),
-            new CoversTab(),
-            new DuplicatesTab(stage)
+            coversTab,
+            duplicatesTab
         );
 
         Scene scene = new Scene(tabs, 1000, 700);
@@ -28,6 +41,26 @@ public class App extends Application {
         stage.show();
     }
 
+    @Override
+    public void stop() {
+        // Persistir la caché de metadatos para no volver a analizar los libros en la próxima sesión
+        try {
+            MetadataCache.shared().save();
+        } catch (IOException e) {
+            System.err.println("No se pudo guardar la caché de metadatos: " + e.getMessage());
+        }
+        try {
+            OnlineLookupCache.shared().save();
+        } catch (IOException e) {
+            System.err.println("No se pudo guardar la caché de búsquedas: " + e.getMessage());
+        }
+        try {
+            MetadataStore.shared().save();
+        } catch (IOException e) {
+            System.err.println("No se pudo compactar el almacén de metadatos: " + e.getMessage());
+        }
+    }
+
     public static void main(String[] args) {
         launch();
     }
@@ -0,0 +1,76 @@
+package es.alepico.epuber.model;
+
+import es.alepico.epuber.util.StringUtil;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Metadatos básicos extraídos del propio fichero del libro (OPF, diccionario Info del PDF...).
+ * Es lo que se guarda en la caché persistente; a diferencia de {@link BookMetadata} no
+ * contiene datos editados por el usuario.
+ */
+public class BookInfo {
+
+    public String title = "(Sin título)";
+    public List<String> authors = new ArrayList<>();
+    public String coverHref;       // Ruta de la portada dentro del EPUB (relativa al OPF)
+    public Map<String, String> ids = new LinkedHashMap<>(); // isbn, uuid, asin...
+    public int pageCount;          // Páginas (sólo PDF; 0 si se desconoce)
+    public int coverColor = -1;    // Color dominante de la portada (0xRRGGBB; -1 si se desconoce)
+
+    public BookInfo() {
+        // Constructor vacío requerido
+    }
+
+    public BookInfo(String title, String author) {
+        this.title = (title == null || title.isBlank()) ? "(Sin título)" : title.trim();
+        if (author != null && !author.isBlank()) {
+            this.authors.add(author.trim());
+        }
+    }
+
+    /**
+     * Autores separados por punto y coma, o cadena vacía.
+     */
+    public String getAuthorString() {
+        if (authors == null || authors.isEmpty()) return "";
+        return String.join("; ", authors);
+    }
+
+    /**
+     * Nombre para mostrar en la galería: "Título — Autor" o sólo el título.
+     */
+    public String getDisplayName() {
+        String author = getAuthorString();
+        return author.isEmpty() ? title : title + " — " + author;
+    }
+
+    /**
+     * Clave normalizada de título y autor para detectar duplicados.
+     */
+    public String getNormalizationKey() {
+        return StringUtil.normalizeForComparison(title + " " + getAuthorString());
+    }
+
+    /**
+     * Indica si el título o algún autor contienen la palabra clave (sin distinguir mayúsculas).
+     */
+    public boolean matches(String keyword) {
+        if (keyword == null || keyword.isBlank()) return true;
+        String low = keyword.toLowerCase(Locale.ROOT);
+        return title.toLowerCase(Locale.ROOT).contains(low)
+                || getAuthorString().toLowerCase(Locale.ROOT).contains(low);
+    }
+
+    @Override
+    public String toString() {
+        return "BookInfo{" +
+                "title='" + title + '\'' +
+                ", authors=" + authors +
+                '}';
+    }
+}
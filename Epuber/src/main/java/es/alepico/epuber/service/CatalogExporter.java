@@ -0,0 +1,189 @@
+package es.alepico.epuber.service;
+
+import es.alepico.epuber.model.BookInfo;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exporta el catálogo de libros a texto plano, CSV, JSON o JSON Lines mientras se extraen los
+ * metadatos. La extracción va en paralelo (hilos virtuales limitados por el {@link IoScheduler})
+ * dentro de una ventana deslizante: el escritor consume los resultados en el orden de la lista,
+ * así que la salida es determinista y la memoria no depende del tamaño de la biblioteca.
+ */
+public class CatalogExporter {
+
+    public enum Format {
+        TXT, CSV, JSON, JSONL;
+
+        /**
+         * Formato según la extensión del fichero de destino (texto plano por defecto).
+         */
+        public static Format forFile(Path file) {
+            String n = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (n.endsWith(".csv")) return CSV;
+            if (n.endsWith(".jsonl") || n.endsWith(".ndjson")) return JSONL;
+            if (n.endsWith(".json")) return JSON;
+            return TXT;
+        }
+    }
+
+    public interface Listener {
+        default void onProgress(int done, int total) {}
+    }
+
+    /** Libros que se extraen por delante del escritor. */
+    private static final int WINDOW = 64;
+    private static final String CSV_HEADER = "file,title,authors,isbn,asin,pages,size";
+
+    private final MetadataCache cache;
+
+    public CatalogExporter() {
+        this(MetadataCache.shared());
+    }
+
+    public CatalogExporter(MetadataCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Escribe el catálogo en un temporal junto al destino y lo renombra al terminar, de modo que
+     * una exportación cancelada no deja un fichero a medias. Devuelve los libros escritos.
+     */
+    public int export(List<Path> files, Path dest, Format format, Listener listener) throws IOException, InterruptedException {
+        Listener l = listener != null ? listener : new Listener() { };
+        Path tmp = dest.resolveSibling(dest.getFileName() + ".tmp");
+        int written = 0;
+        boolean ok = false;
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor();
+             BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            if (format == Format.CSV) {
+                w.write(CSV_HEADER);
+                w.newLine();
+            }
+            Deque<Future<BookInfo>> window = new ArrayDeque<>(WINDOW);
+            int next = 0;
+            try {
+                while (written < files.size()) {
+                    while (next < files.size() && window.size() < WINDOW) {
+                        Path p = files.get(next++);
+                        window.addLast(exec.submit(() -> cache.get(p, IoScheduler.Priority.BACKGROUND)));
+                    }
+                    Path file = files.get(written);
+                    // JSON: un array con un objeto por línea, que se escribe sin guardar nada en memoria
+                    if (format == Format.JSON) w.write(written == 0 ? "[\n" : ",\n");
+                    writeRecord(w, format, file, window.removeFirst().get());
+                    l.onProgress(++written, files.size());
+                }
+                if (format == Format.JSON) w.write(written == 0 ? "[]\n" : "\n]\n");
+            } catch (ExecutionException e) {
+                throw new IOException("No se pudieron leer los metadatos: " + e.getCause().getMessage(), e.getCause());
+            } catch (InterruptedException e) {
+                exec.shutdownNow();
+                throw e;
+            }
+            ok = true;
+        } finally {
+            if (!ok) Files.deleteIfExists(tmp);
+        }
+        Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        cache.save();
+        return written;
+    }
+
+    // ===== Formatos =====
+
+    private static void writeRecord(Writer w, Format format, Path file, BookInfo info) throws IOException {
+        switch (format) {
+            case TXT -> w.write(formatTitleAndAuthor(info));
+            case CSV -> w.write(String.join(",",
+                    csv(file.toString()), csv(info.title), csv(info.getAuthorString()),
+                    csv(info.ids.get("isbn")), csv(info.ids.get("asin")),
+                    info.pageCount > 0 ? Integer.toString(info.pageCount) : "",
+                    Long.toString(sizeOf(file))));
+            case JSON, JSONL -> writeJson(w, file, info);
+        }
+        if (format != Format.JSON) w.write('\n');
+    }
+
+    /**
+     * "Título - Autor", con "Autor desconocido" si no hay; el formato del listado clásico.
+     */
+    public static String formatTitleAndAuthor(BookInfo info) {
+        String author = info.getAuthorString();
+        return info.title + " - " + (author.isEmpty() ? "Autor desconocido" : author);
+    }
+
+    private static void writeJson(Writer w, Path file, BookInfo info) throws IOException {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"file\":");
+        json(sb, file.toString());
+        sb.append(",\"title\":");
+        json(sb, info.title);
+        sb.append(",\"authors\":[");
+        for (int i = 0; i < info.authors.size(); i++) {
+            if (i > 0) sb.append(',');
+            json(sb, info.authors.get(i));
+        }
+        sb.append("],\"ids\":{");
+        boolean first = true;
+        for (Map.Entry<String, String> id : info.ids.entrySet()) {
+            if (!first) sb.append(',');
+            first = false;
+            json(sb, id.getKey());
+            sb.append(':');
+            json(sb, id.getValue());
+        }
+        sb.append('}');
+        if (info.pageCount > 0) sb.append(",\"pages\":").append(info.pageCount);
+        sb.append(",\"size\":").append(sizeOf(file)).append('}');
+        w.write(sb.toString());
+    }
+
+    private static String csv(String s) {
+        if (s == null) return "";
+        boolean quote = s.indexOf(',') >= 0 || s.indexOf('"') >= 0 || s.indexOf('\n') >= 0 || s.indexOf('\r') >= 0;
+        return quote ? '"' + s.replace("\"", "\"\"") + '"' : s;
+    }
+
+    private static void json(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package es.alepico.epuber.service;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.RenderDestination;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Obtiene la portada de un libro (EPUB, PDF, MOBI/AZW3) como imagen AWT escalada a una altura
+ * dada, sin JavaFX, para que se pueda generar y guardar en segundo plano.
+ */
+public class CoverRenderer {
+
+    private CoverRenderer() {
+        // Evitar instanciación
+    }
+
+    /**
+     * Portada escalada a {@code height} píxeles de alto (sin ampliar las pequeñas), en RGB.
+     * Devuelve null si el libro no tiene portada o no se puede leer.
+     */
+    public static BufferedImage render(Path book, int height, IoScheduler.Permit permit)
+            throws IOException, InterruptedException {
+        String name = book.getFileName().toString().toLowerCase(Locale.ROOT);
+        BufferedImage src;
+        if (name.endsWith(".epub")) src = decode(readEpubCover(book, permit), height);
+        else if (name.endsWith(".pdf")) src = renderPdfFirstPage(book, height);
+        else if (MetadataExtractor.isMobi(name)) src = decode(readMobiCover(book, permit), height);
+        else return null;
+        return src == null ? null : scaleToHeight(src, height);
+    }
+
+    /**
+     * Lee sólo el directorio central, el OPF hasta el {@code <item>} de portada y la imagen.
+     */
+    private static byte[] readEpubCover(Path epub, IoScheduler.Permit permit) throws IOException {
+        try (ZipTailReader zip = ZipTailReader.open(epub)) {
+            ZipTailReader.Entry opf = OpfMetadataProbe.findOpf(zip);
+            if (opf == null) return null;
+            OpfMetadataProbe.Result r;
+            try (InputStream is = zip.openEntry(opf)) {
+                r = OpfMetadataProbe.probeWithCover(is);
+            }
+            if (r.coverHref() == null) return null;
+            String href = URLDecoder.decode(r.coverHref().replace("+", "%2B"), StandardCharsets.UTF_8);
+            int slash = opf.name().lastIndexOf('/');
+            String dir = slash >= 0 ? opf.name().substring(0, slash + 1) : "";
+            ZipTailReader.Entry img = zip.find(EpubPackage.normalizeZipPath(dir + href));
+            if (img == null) img = zip.find(href);
+            if (img == null) return null;
+            try (InputStream is = permit.throttle(zip.openEntry(img))) {
+                return is.readAllBytes();
+            }
+        }
+    }
+
+    /**
+     * La portada de un MOBI/AZW3 es un registro de imagen: se lee sólo ese registro.
+     */
+    private static byte[] readMobiCover(Path mobi, IoScheduler.Permit permit)
+            throws IOException, InterruptedException {
+        try (MobiHeaderReader reader = MobiHeaderReader.open(mobi)) {
+            byte[] bytes = reader.readCover();
+            if (bytes != null) permit.account(bytes.length);
+            return bytes;
+        }
+    }
+
+    /**
+     * Decodifica sólo los píxeles que hacen falta: lee las dimensiones de la cabecera y, si la
+     * imagen es mucho más alta que la miniatura, pide al lector un submuestreo (una de cada N
+     * filas y columnas), dejando al menos el doble de la altura final para que el escalado
+     * suavice. Una portada de 3000×4500 a 320 px se decodifica a 429×643 en vez de entera.
+     * Si el formato no tiene lector o el submuestreo falla, se decodifica completa como antes.
+     */
+    static BufferedImage decode(byte[] data, int height) throws IOException {
+        if (data == null) return null;
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (readers.hasNext()) {
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(iis, true, true);
+                    int step = Math.max(1, reader.getHeight(0) / (height * 2));
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(step, step, 0, 0);
+                    return reader.read(0, param);
+                } catch (IOException | RuntimeException e) {
+                    // Cabecera rara o lector sin submuestreo: se prueba la decodificación completa
+                } finally {
+                    reader.dispose();
+                }
+            }
+        }
+        return ImageIO.read(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Primera página de un PDF por el camino más barato disponible: la miniatura incrustada
+     * ({@code /Thumb}) si la hay y es lo bastante grande; si la página es un escaneo (una sola
+     * imagen que la cubre), esa imagen decodificada directamente y submuestreada; y si no, la
+     * página renderizada a la altura exacta, sin anotaciones y con las opciones rápidas.
+     */
+    private static BufferedImage renderPdfFirstPage(Path pdf, int height) throws IOException {
+        try (PDDocument doc = PdfProbe.open(pdf)) {
+            if (doc.getNumberOfPages() == 0) return null;
+            PDPage page = doc.getPage(0);
+            BufferedImage img = null;
+            // Miniatura e imagen se guardan sin girar; las páginas giradas se renderizan
+            if (page.getRotation() % 360 == 0) {
+                img = embeddedThumbnail(page, height);
+                if (img == null) img = scannedPageImage(page, height);
+            }
+            return img != null ? img : renderPage(doc, page, height);
+        }
+    }
+
+    /**
+     * La {@code /Thumb} de la página, si no se queda por debajo de la mitad de la altura pedida
+     * (las de muchos generadores son de unos 100 px y se verían borrosas).
+     */
+    private static BufferedImage embeddedThumbnail(PDPage page, int height) {
+        if (!(page.getCOSObject().getDictionaryObject(COSName.THUMB) instanceof COSStream thumb)) return null;
+        try {
+            PDImageXObject img = PDImageXObject.createThumbnail(thumb);
+            return img.getHeight() * 2 >= height ? img.getImage() : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Página escaneada: sus recursos son una única imagen con la proporción de la página y no
+     * tiene texto visible (la capa OCR se pinta en modo invisible, {@code 3 Tr}). Un JPEG se
+     * decodifica desde sus bytes con submuestreo; el resto de formatos con el submuestreo de
+     * PDFBox. Devuelve null si la página no encaja o la imagen no se puede leer.
+     */
+    private static BufferedImage scannedPageImage(PDPage page, int height) {
+        try {
+            PDResources res = page.getResources();
+            if (res == null) return null;
+            PDImageXObject only = null;
+            for (COSName name : res.getXObjectNames()) {
+                if (only != null || !(res.getXObject(name) instanceof PDImageXObject img)) return null;
+                only = img;
+            }
+            if (only == null || only.isStencil() || only.getHeight() <= 0) return null;
+
+            PDRectangle box = page.getCropBox();
+            double pageRatio = box.getWidth() / box.getHeight();
+            double imageRatio = only.getWidth() / (double) only.getHeight();
+            if (Math.abs(pageRatio - imageRatio) > pageRatio * 0.05) return null;
+            if (res.getFontNames().iterator().hasNext() && !onlyInvisibleText(page)) return null;
+
+            if ("jpg".equals(only.getSuffix()) && only.getDecode() == null
+                    && only.getColorSpace().getNumberOfComponents() != 4) {
+                try (InputStream raw = only.getStream().createInputStream(List.of(COSName.DCT_DECODE.getName()))) {
+                    BufferedImage img = decode(raw.readAllBytes(), height);
+                    if (img != null) return img;
+                } catch (IOException e) {
+                    // JPEG que ImageIO no entiende: lo decodifica PDFBox
+                }
+            }
+            return only.getImage(null, Math.max(1, only.getHeight() / (height * 2)));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static final Pattern INVISIBLE_TEXT = Pattern.compile("(^|\\s)3\\s+Tr(\\s|$)");
+
+    /**
+     * Si todo el texto de la página usa el modo de render invisible (típico de la capa OCR).
+     * Mira sólo si el contenido fija {@code 3 Tr}, sin interpretar los operadores.
+     */
+    private static boolean onlyInvisibleText(PDPage page) throws IOException {
+        try (InputStream is = page.getContents()) {
+            if (is == null) return true;
+            String content = new String(is.readAllBytes(), StandardCharsets.ISO_8859_1);
+            return INVISIBLE_TEXT.matcher(content).find() && !content.contains(" 0 Tr");
+        }
+    }
+
+    /**
+     * Renderiza a la escala justa para la altura pedida, permitiendo que PDFBox submuestree las
+     * imágenes grandes, sin anotaciones y con las pistas de velocidad en lugar de calidad.
+     */
+    private static BufferedImage renderPage(PDDocument doc, PDPage page, int height) throws IOException {
+        PDRectangle box = page.getCropBox();
+        float pageHeight = page.getRotation() % 180 == 0 ? box.getHeight() : box.getWidth();
+        if (pageHeight <= 0) return null;
+        PDFRenderer renderer = new PDFRenderer(doc);
+        renderer.setSubsamplingAllowed(true);
+        renderer.setAnnotationsFilter(annotation -> false);
+        RenderingHints hints = new RenderingHints(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+        hints.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        // Sin suavizado el texto de una miniatura sale ilegible; es lo único que se deja
+        hints.put(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        renderer.setRenderingHints(hints);
+        return renderer.renderImage(0, height / pageHeight, ImageType.RGB, RenderDestination.VIEW);
+    }
+
+    /**
+     * Color dominante de una imagen (0xRRGGBB), para pintar el hueco de la portada mientras
+     * llega la miniatura. Cuenta una rejilla de unos 32×32 puntos en un histograma de 4 bits
+     * por canal y devuelve la media de la celda más poblada: a diferencia de la media de toda
+     * la imagen, no sale un gris sucio cuando la portada mezcla colores vivos.
+     */
+    static int dominantColor(BufferedImage img) {
+        int w = img.getWidth(), h = img.getHeight();
+        int stepX = Math.max(1, w / 32), stepY = Math.max(1, h / 32);
+        int[] count = new int[4096];
+        long[] r = new long[4096], g = new long[4096], b = new long[4096];
+        int best = 0;
+        for (int y = stepY / 2; y < h; y += stepY) {
+            for (int x = stepX / 2; x < w; x += stepX) {
+                int rgb = img.getRGB(x, y);
+                int cr = (rgb >> 16) & 0xFF, cg = (rgb >> 8) & 0xFF, cb = rgb & 0xFF;
+                int bin = (cr >> 4) << 8 | (cg >> 4) << 4 | cb >> 4;
+                r[bin] += cr;
+                g[bin] += cg;
+                b[bin] += cb;
+                if (++count[bin] > count[best]) best = bin;
+            }
+        }
+        int n = Math.max(1, count[best]);
+        return (int) (r[best] / n) << 16 | (int) (g[best] / n) << 8 | (int) (b[best] / n);
+    }
+
+    /**
+     * Reduce a la altura pedida a pasos de la mitad (bilineal en cada paso), que da un
+     * resultado casi como el bicúbico de una sola vez y mucho más rápido en imágenes grandes.
+     */
+    static BufferedImage scaleToHeight(BufferedImage src, int height) {
+        int w = src.getWidth(), h = src.getHeight();
+        if (h <= height && src.getType() == BufferedImage.TYPE_INT_RGB) return src;
+        int targetH = Math.min(h, height);
+        int targetW = Math.max(1, (int) Math.round(w * (targetH / (double) h)));
+        BufferedImage cur = src;
+        do {
+            int nextH = Math.max(targetH, h / 2);
+            int nextW = nextH == targetH ? targetW : Math.max(targetW, w / 2);
+            BufferedImage next = new BufferedImage(nextW, nextH, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            try {
+                // Fondo blanco para las PNG/GIF con transparencia (el JPEG no la admite)
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, nextW, nextH);
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(cur, 0, 0, nextW, nextH, null);
+            } finally {
+                g.dispose();
+            }
+            cur = next;
+            w = nextW;
+            h = nextH;
+        } while (h > targetH);
+        return cur;
+    }
+}
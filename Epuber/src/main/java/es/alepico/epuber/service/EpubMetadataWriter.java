@@ -0,0 +1,414 @@
+package es.alepico.epuber.service;
+
+import es.alepico.epuber.model.BookMetadata;
+import es.alepico.epuber.util.Isbn;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Escribe metadatos editados dentro del propio EPUB sin descomprimirlo: sólo se regenera la
+ * entrada del OPF; el resto de entradas (imágenes, XHTML, fuentes) se copian tal cual, cabecera
+ * local y datos comprimidos incluidos, con {@link FileChannel#transferTo}. El resultado se
+ * escribe en un temporal junto al libro y sustituye al original con un renombrado atómico.
+ *
+ * Se reemplazan título y autores; etiquetas, sinopsis, editorial, fecha, serie, valoración e
+ * ISBN sólo si vienen informados, para no borrar lo que el libro ya tenía. El idioma no se toca ({@link BookMetadata} lo rellena con
+ * "es" por defecto y sobrescribiría el real).
+ */
+public class EpubMetadataWriter {
+
+    private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+    private static final String OPF_NS = "http://www.idpf.org/2007/opf";
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int EOCD_SIG = 0x06054b50;
+    /** Libros en vuelo a la vez en un lote; el paralelismo real lo marca el {@link IoScheduler}. */
+    private static final int MAX_IN_FLIGHT = 16;
+
+    /**
+     * Resumen de un lote.
+     */
+    public record Report(int total, int written, int failed, long bytesCopied, long elapsedMillis) {
+        public String describe() {
+            return String.format(Locale.ROOT, "%d de %d EPUB actualizados en %.1f s (%d con error, %.1f MB copiados sin descomprimir)",
+                    written, total, elapsedMillis / 1000.0, failed, bytesCopied / 1_048_576.0);
+        }
+    }
+
+    public interface Listener {
+        default void onProgress(int done, int total) {}
+        /** El libro ya está reescrito en disco. */
+        default void onWritten(Path file) {}
+        default void onError(Path file, Exception error) {}
+    }
+
+    private final IoScheduler io;
+
+    public EpubMetadataWriter() {
+        this(IoScheduler.shared());
+    }
+
+    public EpubMetadataWriter(IoScheduler io) {
+        this.io = io;
+    }
+
+    /**
+     * Reescribe el OPF de un EPUB con los metadatos indicados. Devuelve los bytes copiados en bruto.
+     */
+    public long write(Path epub, BookMetadata meta) throws IOException, InterruptedException {
+        return write(epub, meta, IoScheduler.Priority.INTERACTIVE);
+    }
+
+    /**
+     * Aplica las ediciones a muchos libros en paralelo (un hilo virtual por libro, con prioridad
+     * BACKGROUND). Un libro que falla no detiene el resto: se notifica y se cuenta en el informe.
+     * Los que se interrumpen a medias quedan intactos y también cuentan como fallidos.
+     */
+    public Report writeAll(Map<Path, BookMetadata> edits, Listener listener) throws InterruptedException {
+        Listener l = listener != null ? listener : new Listener() { };
+        long start = System.nanoTime();
+        int total = edits.size();
+        AtomicInteger done = new AtomicInteger(), written = new AtomicInteger(), failed = new AtomicInteger();
+        AtomicLong copied = new AtomicLong();
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            try {
+                for (Map.Entry<Path, BookMetadata> e : edits.entrySet()) {
+                    inFlight.acquire();
+                    exec.submit(() -> {
+                        try {
+                            copied.addAndGet(write(e.getKey(), e.getValue(), IoScheduler.Priority.BACKGROUND));
+                            written.incrementAndGet();
+                            l.onWritten(e.getKey());
+                        } catch (InterruptedException ex) {
+                            failed.incrementAndGet();
+                            l.onError(e.getKey(), ex);
+                            Thread.currentThread().interrupt();
+                        } catch (IOException | RuntimeException ex) {
+                            failed.incrementAndGet();
+                            l.onError(e.getKey(), ex);
+                        } finally {
+                            inFlight.release();
+                            l.onProgress(done.incrementAndGet(), total);
+                        }
+                    });
+                }
+            } catch (InterruptedException e) {
+                exec.shutdownNow();
+                throw e;
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        return new Report(total, written.get(), failed.get(), copied.get(), elapsed);
+    }
+
+    // ===== Reescritura del ZIP =====
+
+    private long write(Path epub, BookMetadata meta, IoScheduler.Priority priority) throws IOException, InterruptedException {
+        Path tmp = epub.resolveSibling(epub.getFileName() + ".tmp");
+        long copied = 0;
+        boolean ok = false;
+        try (IoScheduler.Permit permit = io.acquire(priority, epub);
+             ZipTailReader zip = ZipTailReader.open(epub);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.WRITE)) {
+            ZipTailReader.Entry opf = OpfMetadataProbe.findOpf(zip);
+            if (opf == null) throw new ZipException("No es un EPUB: no se encuentra el OPF");
+            byte[] opfBytes;
+            try (InputStream is = zip.openEntry(opf)) {
+                opfBytes = rewriteOpf(is, meta);
+            }
+
+            List<ZipTailReader.CentralRecord> records = zip.centralRecords();
+            if (records.size() >= 0xFFFF) throw new ZipException("ZIP64 no soportado");
+            ByteArrayOutputStream central = new ByteArrayOutputStream(records.size() * 96);
+            for (ZipTailReader.CentralRecord r : records) {
+                long offset = out.position();
+                byte[] cen = r.raw().clone();
+                ByteBuffer c = ByteBuffer.wrap(cen).order(ByteOrder.LITTLE_ENDIAN);
+                if (c.getInt(20) == -1 || c.getInt(24) == -1 || c.getInt(42) == -1) {
+                    throw new ZipException("ZIP64 no soportado: " + r.entry().name());
+                }
+                if (r.entry().localHeaderOffset() == opf.localHeaderOffset()) {
+                    writeDeflated(out, c, opfBytes);
+                } else {
+                    long n = zip.transferRaw(r, out);
+                    permit.account(n);
+                    copied += n;
+                }
+                if (out.position() > 0xFFFFFFFFL) throw new ZipException("ZIP64 no soportado: el EPUB supera 4 GB");
+                c.putInt(42, (int) offset);
+                central.write(cen);
+            }
+
+            long cdOffset = out.position();
+            byte[] cd = central.toByteArray();
+            writeFully(out, ByteBuffer.wrap(cd));
+            ByteBuffer eocd = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+            eocd.putInt(EOCD_SIG).putShort((short) 0).putShort((short) 0)
+                    .putShort((short) records.size()).putShort((short) records.size())
+                    .putInt(cd.length).putInt((int) cdOffset).putShort((short) 0);
+            writeFully(out, eocd.flip());
+            out.force(true);
+            ok = true;
+        } finally {
+            if (!ok) Files.deleteIfExists(tmp);
+        }
+        Files.move(tmp, epub, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return copied;
+    }
+
+    /**
+     * Escribe la entrada nueva comprimida (sin descriptor de datos) y actualiza su registro
+     * del directorio central, que conserva nombre, atributos y comentario del original.
+     */
+    private static void writeDeflated(FileChannel out, ByteBuffer cen, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        byte[] packed = deflate(data);
+        int flags = Short.toUnsignedInt(cen.getShort(8)) & ~0x08;
+        int[] dos = dosDateTime(LocalDateTime.now());
+        int nameLen = Short.toUnsignedInt(cen.getShort(28));
+
+        cen.putShort(6, (short) 20).putShort(8, (short) flags).putShort(10, (short) 8)
+                .putShort(12, (short) dos[1]).putShort(14, (short) dos[0])
+                .putInt(16, (int) crc.getValue()).putInt(20, packed.length).putInt(24, data.length);
+
+        ByteBuffer loc = ByteBuffer.allocate(30 + nameLen).order(ByteOrder.LITTLE_ENDIAN);
+        loc.putInt(LOC_SIG).putShort((short) 20).putShort((short) flags).putShort((short) 8)
+                .putShort((short) dos[1]).putShort((short) dos[0])
+                .putInt((int) crc.getValue()).putInt(packed.length).putInt(data.length)
+                .putShort((short) nameLen).putShort((short) 0)
+                .put(cen.array(), 46, nameLen);
+        writeFully(out, loc.flip());
+        writeFully(out, ByteBuffer.wrap(packed));
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater d = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            d.setInput(data);
+            d.finish();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buf = new byte[8192];
+            while (!d.finished()) bos.write(buf, 0, d.deflate(buf));
+            return bos.toByteArray();
+        } finally {
+            d.end();
+        }
+    }
+
+    /**
+     * Fecha y hora en formato MS-DOS: {fecha, hora}.
+     */
+    private static int[] dosDateTime(LocalDateTime t) {
+        int date = ((t.getYear() - 1980) << 9) | (t.getMonthValue() << 5) | t.getDayOfMonth();
+        int time = (t.getHour() << 11) | (t.getMinute() << 5) | (t.getSecond() >> 1);
+        return new int[] { date, time };
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) out.write(buf);
+    }
+
+    // ===== OPF =====
+
+    /**
+     * OPF con el bloque {@code <metadata>} actualizado; el resto del documento no cambia.
+     */
+    static byte[] rewriteOpf(InputStream opf, BookMetadata meta) throws IOException {
+        Document doc = EpubPackage.parse(opf);
+        Element pkg = doc.getDocumentElement();
+        Element metadata = firstChild(pkg, "metadata");
+        if (metadata == null) throw new IOException("OPF sin bloque <metadata>");
+        boolean epub3 = pkg.getAttribute("version").startsWith("3");
+
+        String dc = metadata.lookupPrefix(DC_NS);
+        if (dc == null) {
+            dc = "dc";
+            metadata.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:dc", DC_NS);
+        }
+
+        Set<String> replaced = new HashSet<>(List.of("title", "creator"));
+        if (!meta.tags.isEmpty()) replaced.add("subject");
+        if (meta.synopsis != null) replaced.add("description");
+        if (meta.publisher != null) replaced.add("publisher");
+        if (meta.date != null) replaced.add("date");
+        Set<String> removedIds = new HashSet<>();
+        for (Element el : children(metadata)) {
+            if (DC_NS.equals(el.getNamespaceURI()) && replaced.contains(el.getLocalName())) {
+                if (el.hasAttribute("id")) removedIds.add("#" + el.getAttribute("id"));
+                detach(el);
+            }
+        }
+        for (Element el : children(metadata)) {
+            if (!"meta".equals(localName(el))) continue;
+            String name = el.getAttribute("name");
+            boolean staleRefine = removedIds.contains(el.getAttribute("refines"));
+            boolean calibre = (meta.series != null && (name.equals("calibre:series") || name.equals("calibre:series_index")))
+                    || (meta.rating != null && name.equals("calibre:rating"));
+            boolean modified = epub3 && "dcterms:modified".equals(el.getAttribute("property"));
+            if (staleRefine || calibre || modified) detach(el);
+        }
+
+        List<Element> added = new ArrayList<>();
+        added.add(dcElement(doc, dc, "title", meta.title));
+        for (int i = 0; i < meta.authors.size(); i++) {
+            Element creator = dcElement(doc, dc, "creator", meta.authors.get(i));
+            if (epub3) creator.setAttribute("id", "epuber-creator" + (i + 1));
+            else creator.setAttributeNS(OPF_NS, "opf:role", "aut");
+            added.add(creator);
+        }
+        if (meta.publisher != null) added.add(dcElement(doc, dc, "publisher", meta.publisher));
+        if (meta.date != null) added.add(dcElement(doc, dc, "date", meta.date.toString()));
+        for (String tag : meta.tags) added.add(dcElement(doc, dc, "subject", tag));
+        if (meta.synopsis != null) added.add(dcElement(doc, dc, "description", meta.synopsis));
+        String isbn = Isbn.toIsbn13(meta.ids.get("isbn"));
+        if (isbn != null && !hasIsbn(metadata, isbn)) {
+            Element id = dcElement(doc, dc, "identifier", epub3 ? "urn:isbn:" + isbn : isbn);
+            if (!epub3) id.setAttributeNS(OPF_NS, "opf:scheme", "ISBN");
+            added.add(id);
+        }
+        if (meta.series != null) {
+            added.add(calibreMeta(doc, metadata, "calibre:series", meta.series));
+            if (meta.seriesIndex != null) added.add(calibreMeta(doc, metadata, "calibre:series_index", meta.seriesIndex.toString()));
+        }
+        if (meta.rating != null) added.add(calibreMeta(doc, metadata, "calibre:rating", meta.rating.toString()));
+        if (epub3) {
+            Element mod = doc.createElementNS(metadata.getNamespaceURI(), qualify(metadata, "meta"));
+            mod.setAttribute("property", "dcterms:modified");
+            mod.setTextContent(DateTimeFormatter.ISO_INSTANT.format(Instant.now().truncatedTo(ChronoUnit.SECONDS)));
+            added.add(mod);
+        }
+
+        // Los nuevos van al principio del bloque, con la sangría que ya use el documento
+        String indent = indentOf(metadata);
+        Node anchor = metadata.getFirstChild();
+        for (Element el : added) {
+            if (!indent.isEmpty()) metadata.insertBefore(doc.createTextNode(indent), anchor);
+            metadata.insertBefore(el, anchor);
+        }
+        return serialize(doc);
+    }
+
+    private static Element dcElement(Document doc, String prefix, String name, String text) {
+        Element el = doc.createElementNS(DC_NS, prefix + ":" + name);
+        el.setTextContent(text);
+        return el;
+    }
+
+    private static Element calibreMeta(Document doc, Element metadata, String name, String content) {
+        Element el = doc.createElementNS(metadata.getNamespaceURI(), qualify(metadata, "meta"));
+        el.setAttribute("name", name);
+        el.setAttribute("content", content);
+        return el;
+    }
+
+    /**
+     * Quita el elemento junto con la sangría que lo precede, para no dejar líneas en blanco.
+     */
+    private static void detach(Element el) {
+        Node prev = el.getPreviousSibling();
+        if (prev != null && prev.getNodeType() == Node.TEXT_NODE && prev.getNodeValue().isBlank()) {
+            prev.getParentNode().removeChild(prev);
+        }
+        el.getParentNode().removeChild(el);
+    }
+
+    private static String qualify(Element sibling, String local) {
+        return sibling.getPrefix() != null ? sibling.getPrefix() + ":" + local : local;
+    }
+
+    private static boolean hasIsbn(Element metadata, String isbn13) {
+        for (Element el : children(metadata)) {
+            if ("identifier".equals(el.getLocalName()) && isbn13.equals(Isbn.toIsbn13(el.getTextContent()))) return true;
+        }
+        return false;
+    }
+
+    private static String indentOf(Element metadata) {
+        Node first = metadata.getFirstChild();
+        if (first != null && first.getNodeType() == Node.TEXT_NODE && first.getNodeValue().isBlank()) {
+            String ws = first.getNodeValue();
+            int nl = ws.lastIndexOf('\n');
+            return nl >= 0 ? ws.substring(nl) : ws;
+        }
+        return ""; // OPF sin sangría: se mantiene en una línea
+    }
+
+    private static Element firstChild(Element parent, String localName) {
+        for (Element el : children(parent)) {
+            if (localName.equals(localName(el))) return el;
+        }
+        return null;
+    }
+
+    /**
+     * Hijos de tipo elemento, copiados a una lista para poder borrar mientras se recorren.
+     */
+    private static List<Element> children(Element parent) {
+        NodeList nl = parent.getChildNodes();
+        List<Element> out = new ArrayList<>(nl.getLength());
+        for (int i = 0; i < nl.getLength(); i++) {
+            if (nl.item(i) instanceof Element el) out.add(el);
+        }
+        return out;
+    }
+
+    private static String localName(Element el) {
+        return el.getLocalName() != null ? el.getLocalName() : el.getTagName();
+    }
+
+    private static byte[] serialize(Document doc) throws IOException {
+        try {
+            doc.setXmlStandalone(true);
+            TransformerFactory tf = TransformerFactory.newInstance();
+            tf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            Transformer t = tf.newTransformer();
+            t.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(8192);
+            t.transform(new DOMSource(doc), new StreamResult(bos));
+            return bos.toByteArray();
+        } catch (TransformerException e) {
+            throw new IOException("No se pudo generar el OPF: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package es.alepico.epuber.service;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Modelo del paquete de un EPUB: metadatos, manifiesto, spine y portada.
+ * Abre el archivo una vez y analiza {@code container.xml} y el OPF en una sola pasada,
+ * con carga de DTD y entidades externas desactivada y parsers reutilizados por hilo.
+ * Sustituye a las copias de 'findOpfPath'/'findCoverHref'/'parseOpf' repartidas por la UI.
+ */
+public class EpubPackage {
+
+    public record ManifestItem(String id, String href, String mediaType, String properties) {
+        public boolean isHtml() {
+            String l = href.toLowerCase(Locale.ROOT);
+            return "application/xhtml+xml".equals(mediaType) || l.endsWith(".xhtml") || l.endsWith(".html") || l.endsWith(".htm");
+        }
+    }
+
+    private static final ThreadLocal<DocumentBuilder> PARSERS = ThreadLocal.withInitial(EpubPackage::newSecureBuilder);
+
+    private final String opfPath;
+    private String title;
+    private final List<String> authors = new ArrayList<>();
+    private final Map<String, String> identifiers = new LinkedHashMap<>();
+    private String language;
+    private final Map<String, ManifestItem> manifest = new LinkedHashMap<>();
+    private final List<ManifestItem> spine = new ArrayList<>();
+    private String coverHref;
+
+    private EpubPackage(String opfPath) {
+        this.opfPath = opfPath;
+    }
+
+    /**
+     * Lee el paquete de un fichero EPUB.
+     */
+    public static EpubPackage read(Path epub) throws IOException {
+        try (ZipFile zip = new ZipFile(epub.toFile())) {
+            return read(zip);
+        }
+    }
+
+    /**
+     * Lee el paquete de un ZIP ya abierto (para que el llamante pueda seguir leyendo entradas).
+     */
+    public static EpubPackage read(ZipFile zip) throws IOException {
+        String opfPath = findOpfPath(zip);
+        if (opfPath == null) throw new IOException("No se encontró el archivo OPF.");
+        ZipEntry opfEntry = zip.getEntry(opfPath);
+        if (opfEntry == null) throw new IOException("OPF declarado pero inexistente: " + opfPath);
+
+        EpubPackage pkg = new EpubPackage(opfPath);
+        try (InputStream is = zip.getInputStream(opfEntry)) {
+            pkg.parseOpf(parse(is));
+        }
+        return pkg;
+    }
+
+    // ===== Acceso =====
+
+    /** Ruta del OPF dentro del ZIP (p. ej. "OEBPS/content.opf"). */
+    public String getOpfPath() { return opfPath; }
+
+    /** Directorio del OPF dentro del ZIP, con barra final, o "" si está en la raíz. */
+    public String getOpfDir() {
+        int slash = opfPath.lastIndexOf('/');
+        return slash >= 0 ? opfPath.substring(0, slash + 1) : "";
+    }
+
+    public String getTitle() { return title; }
+    public List<String> getAuthors() { return Collections.unmodifiableList(authors); }
+    /** Identificadores por esquema en minúsculas ("isbn", "uuid"...) o "id" si no lo declaran. */
+    public Map<String, String> getIdentifiers() { return Collections.unmodifiableMap(identifiers); }
+    public String getLanguage() { return language; }
+    public Map<String, ManifestItem> getManifest() { return Collections.unmodifiableMap(manifest); }
+    public List<ManifestItem> getSpine() { return Collections.unmodifiableList(spine); }
+    /** Href de la portada relativo al OPF, o null. */
+    public String getCoverHref() { return coverHref; }
+
+    /**
+     * Convierte un href relativo al OPF en la ruta de la entrada dentro del ZIP.
+     */
+    public String resolve(String href) {
+        return normalizeZipPath(getOpfDir() + href);
+    }
+
+    /**
+     * Busca la entrada del ZIP correspondiente a un href del manifiesto.
+     */
+    public ZipEntry findEntry(ZipFile zip, String href) {
+        ZipEntry e = zip.getEntry(resolve(href));
+        return e != null ? e : zip.getEntry(href);
+    }
+
+    // ===== Análisis =====
+
+    /**
+     * Ruta del OPF según {@code container.xml}, o la primera .opf del archivo si no lo hay.
+     */
+    private static String findOpfPath(ZipFile zip) throws IOException {
+        ZipEntry container = zip.getEntry("META-INF/container.xml");
+        if (container != null) {
+            try (InputStream is = zip.getInputStream(container)) {
+                NodeList n = parse(is).getElementsByTagNameNS("*", "rootfile");
+                for (int i = 0; i < n.getLength(); i++) {
+                    String full = ((Element) n.item(i)).getAttribute("full-path");
+                    if (!full.isEmpty()) return full;
+                }
+            }
+        }
+        // Fallback: primera .opf encontrada
+        Enumeration<? extends ZipEntry> en = zip.entries();
+        while (en.hasMoreElements()) {
+            ZipEntry z = en.nextElement();
+            if (!z.isDirectory() && z.getName().toLowerCase(Locale.ROOT).endsWith(".opf")) return z.getName();
+        }
+        return null;
+    }
+
+    /**
+     * Recorre el OPF una sola vez: metadata, manifest y spine.
+     */
+    private void parseOpf(Document doc) {
+        List<String> idrefs = new ArrayList<>();
+        String coverId = null;
+        for (Element sec : children(doc.getDocumentElement())) {
+            switch (localName(sec)) {
+                case "metadata" -> coverId = readMetadata(sec);
+                case "manifest" -> {
+                    for (Element el : children(sec)) {
+                        String id = el.getAttribute("id"), href = el.getAttribute("href");
+                        if (!"item".equals(localName(el)) || id.isEmpty() || href.isEmpty()) continue;
+                        manifest.put(id, new ManifestItem(id, href, el.getAttribute("media-type"), el.getAttribute("properties")));
+                    }
+                }
+                case "spine" -> {
+                    for (Element el : children(sec)) {
+                        if ("itemref".equals(localName(el)) && !el.getAttribute("idref").isEmpty()) idrefs.add(el.getAttribute("idref"));
+                    }
+                }
+                default -> { }
+            }
+        }
+        for (String idref : idrefs) {
+            ManifestItem it = manifest.get(idref);
+            if (it != null) spine.add(it);
+        }
+        coverHref = pickCover(coverId);
+    }
+
+    /**
+     * Lee los campos Dublin Core. Devuelve el id de la portada declarado con meta name="cover".
+     */
+    private String readMetadata(Element metadata) {
+        String coverId = null;
+        for (Element el : children(metadata)) {
+            String text = el.getTextContent() == null ? "" : el.getTextContent().trim();
+            switch (localName(el)) {
+                // OPF 1.x anida los campos en dc-metadata / x-metadata
+                case "dc-metadata", "x-metadata" -> {
+                    String nested = readMetadata(el);
+                    if (coverId == null) coverId = nested;
+                }
+                case "title" -> { if (title == null && !text.isEmpty()) title = text; }
+                case "creator" -> { if (!text.isEmpty()) authors.add(text); }
+                case "language" -> { if (language == null && !text.isEmpty()) language = text; }
+                case "identifier" -> {
+                    if (text.isEmpty()) continue;
+                    String scheme = el.getAttributeNS("http://www.idpf.org/2007/opf", "scheme");
+                    if (scheme.isEmpty()) scheme = el.getAttribute("opf:scheme");
+                    identifiers.putIfAbsent(scheme.isEmpty() ? "id" : scheme.toLowerCase(Locale.ROOT), text);
+                }
+                case "meta" -> {
+                    if ("cover".equalsIgnoreCase(el.getAttribute("name")) && !el.getAttribute("content").isEmpty()) {
+                        coverId = el.getAttribute("content");
+                    }
+                }
+                default -> { }
+            }
+        }
+        return coverId;
+    }
+
+    private static List<Element> children(Element parent) {
+        List<Element> out = new ArrayList<>();
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n instanceof Element el) out.add(el);
+        }
+        return out;
+    }
+
+    private String pickCover(String coverId) {
+        if (coverId != null && manifest.containsKey(coverId)) return manifest.get(coverId).href();
+        String byGuess = null;
+        for (ManifestItem it : manifest.values()) {
+            if (it.properties().toLowerCase(Locale.ROOT).contains("cover-image")) return it.href();
+            if (byGuess == null && it.mediaType().startsWith("image/") && it.href().toLowerCase(Locale.ROOT).contains("cover")) {
+                byGuess = it.href();
+            }
+        }
+        return byGuess;
+    }
+
+    private static String localName(Element el) {
+        return el.getLocalName() != null ? el.getLocalName() : el.getTagName();
+    }
+
+    // ===== Parsers XML seguros y reutilizados =====
+
+    static Document parse(InputStream is) throws IOException {
+        DocumentBuilder builder = PARSERS.get();
+        builder.reset();
+        // Ninguna entidad externa se resuelve: se sustituye por contenido vacío
+        builder.setEntityResolver((publicId, systemId) -> new InputSource(new StringReader("")));
+        try {
+            return builder.parse(is);
+        } catch (SAXException e) {
+            throw new IOException("XML no válido: " + e.getMessage(), e);
+        }
+    }
+
+    private static DocumentBuilder newSecureBuilder() {
+        try {
+            DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+            f.setNamespaceAware(true);
+            f.setXIncludeAware(false);
+            f.setExpandEntityReferences(false);
+            f.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            f.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            f.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            f.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            f.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            f.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+            return f.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("No se pudo configurar el parser XML", e);
+        }
+    }
+
+    static String normalizeZipPath(String p) {
+        Deque<String> stack = new ArrayDeque<>();
+        for (String part : p.split("/")) {
+            if (part.isEmpty() || ".".equals(part)) continue;
+            if ("..".equals(part)) {
+                if (!stack.isEmpty()) stack.removeLast();
+            } else stack.addLast(part);
+        }
+        return String.join("/", stack);
+    }
+}
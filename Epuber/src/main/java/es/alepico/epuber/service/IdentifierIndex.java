@@ -0,0 +1,142 @@
+package es.alepico.epuber.service;
+
+import es.alepico.epuber.util.Identifiers;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Índice hash de identificadores normalizados (ISBN-13, ASIN, UUID, DOI) a libros.
+ * "¿Quién tiene este ISBN?" es una consulta de tabla hash, sin recorrer la biblioteca ni
+ * comparar títulos aproximados, y los duplicados por identificador salen en una sola pasada
+ * sobre las claves compartidas.
+ */
+public class IdentifierIndex {
+
+    private static final List<String> INDEXED =
+            List.of(Identifiers.ISBN, Identifiers.ASIN, Identifiers.UUID, Identifiers.DOI);
+
+    /**
+     * Libros que comparten algún identificador, directamente o a través de otro libro
+     * (A y B con el mismo ISBN, B y C con el mismo ASIN).
+     */
+    public record Group(List<String> sharedKeys, List<Path> files) { }
+
+    private final Map<String, List<Path>> byKey = new HashMap<>();
+    private final Map<Path, List<String>> byFile = new HashMap<>();
+
+    /**
+     * Índice de la lista de libros con los metadatos de la caché (extrayendo los que falten)
+     * y las ediciones del usuario encima.
+     */
+    public static IdentifierIndex build(Collection<Path> files, MetadataCache cache, MetadataStore store) {
+        IdentifierIndex index = new IdentifierIndex();
+        for (Path file : files) {
+            if (Thread.currentThread().isInterrupted()) break;
+            index.put(file, store.apply(file, cache.get(file, IoScheduler.Priority.BACKGROUND)).ids);
+        }
+        return index;
+    }
+
+    /**
+     * Indexa (o reindexa) un libro. Los identificadores se normalizan aquí también, así que
+     * valen tanto los de la caché como los tecleados por el usuario.
+     */
+    public synchronized void put(Path file, Map<String, String> ids) {
+        remove(file);
+        Map<String, String> normalized = Identifiers.normalize(ids);
+        List<String> keys = new ArrayList<>(2);
+        for (String type : INDEXED) {
+            String value = normalized.get(type);
+            if (value != null) keys.add(Identifiers.key(type, value));
+        }
+        if (keys.isEmpty()) return;
+        byFile.put(file, keys);
+        for (String key : keys) byKey.computeIfAbsent(key, k -> new ArrayList<>(1)).add(file);
+    }
+
+    public synchronized void remove(Path file) {
+        List<String> keys = byFile.remove(file);
+        if (keys == null) return;
+        for (String key : keys) {
+            List<Path> files = byKey.get(key);
+            files.remove(file);
+            if (files.isEmpty()) byKey.remove(key);
+        }
+    }
+
+    /**
+     * Libros con ese identificador del tipo indicado ("isbn", "asin", "uuid", "doi").
+     * Un ISBN-10 encuentra también los libros que lo tengan como ISBN-13.
+     */
+    public synchronized List<Path> find(String type, String value) {
+        String v = Identifiers.normalize(type, value);
+        if (v == null) return List.of();
+        return List.copyOf(byKey.getOrDefault(Identifiers.key(type, v), List.of()));
+    }
+
+    /**
+     * Como {@link #find(String, String)} pero reconociendo el tipo por el propio valor
+     * (lo que el usuario escribe en un buscador).
+     */
+    public List<Path> find(String value) {
+        Set<Path> out = new LinkedHashSet<>();
+        for (String type : INDEXED) out.addAll(find(type, value));
+        return List.copyOf(out);
+    }
+
+    /**
+     * Grupos de duplicados por identificador, uniendo transitivamente los libros que
+     * comparten alguna clave. Lineal en el número de claves indexadas.
+     */
+    public synchronized List<Group> duplicateGroups() {
+        Map<Path, Path> parent = new HashMap<>();
+        for (List<Path> files : byKey.values()) {
+            for (int i = 1; i < files.size(); i++) union(parent, files.get(0), files.get(i));
+        }
+        Map<Path, Group> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Path>> e : byKey.entrySet()) {
+            if (e.getValue().size() < 2) continue;
+            Group g = groups.computeIfAbsent(find(parent, e.getValue().get(0)),
+                    root -> new Group(new ArrayList<>(), new ArrayList<>()));
+            g.sharedKeys().add(e.getKey());
+            for (Path p : e.getValue()) {
+                if (!g.files().contains(p)) g.files().add(p);
+            }
+        }
+        return List.copyOf(groups.values());
+    }
+
+    public synchronized int size() {
+        return byFile.size();
+    }
+
+    // ===== Unión-búsqueda =====
+
+    private static Path find(Map<Path, Path> parent, Path p) {
+        Path root = p;
+        while (true) {
+            Path up = parent.get(root);
+            if (up == null || up.equals(root)) break;
+            root = up;
+        }
+        // Compresión de caminos
+        while (!p.equals(root)) {
+            Path up = parent.put(p, root);
+            p = up == null ? root : up;
+        }
+        return root;
+    }
+
+    private static void union(Map<Path, Path> parent, Path a, Path b) {
+        Path ra = find(parent, a), rb = find(parent, b);
+        if (!ra.equals(rb)) parent.put(rb, ra);
+    }
+}
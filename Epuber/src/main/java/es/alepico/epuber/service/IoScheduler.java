@@ -0,0 +1,346 @@
+package es.alepico.epuber.service;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Planificador de E/S compartido por todos los servicios (biblioteca, PDF, ZIP y carátulas).
+ * Limita la concurrencia y el ancho de banda por dispositivo físico (FileStore) y rebaja
+ * automáticamente la prioridad de los trabajos en segundo plano mientras el usuario
+ * interactúa con la galería de carátulas o con el lector.
+ *
+ * Uso típico:
+ * <pre>
+ * try (IoScheduler.Permit permit = io.acquire(Priority.BACKGROUND, origen, destino)) {
+ *     ... leer/escribir, llamando a permit.account(bytes) ...
+ * }
+ * </pre>
+ */
+public class IoScheduler {
+
+    public enum Priority {
+        /** Lo que el usuario está esperando ver (carátulas visibles, lector). */
+        INTERACTIVE,
+        /** Copias, conversiones, empaquetados... cede el paso a INTERACTIVE. */
+        BACKGROUND
+    }
+
+    /** Tiempo tras la última interacción durante el que el segundo plano cede el paso. */
+    private static final long INTERACTION_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(800);
+    /** Ritmo máximo de un trabajo en segundo plano mientras el usuario interactúa. */
+    private static final long BACKGROUND_RATE_WHILE_INTERACTING = 2L * 1024 * 1024;
+    private static final long BACKOFF_MILLIS = 50;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final IoScheduler SHARED = new IoScheduler(2, 0);
+
+    private final Map<Path, Object> deviceKeys = new ConcurrentHashMap<>();
+    private final Map<Object, Device> devices = new ConcurrentHashMap<>();
+    private final int defaultConcurrency;
+    private final long defaultBytesPerSecond;
+    private volatile long lastInteraction;
+
+    /**
+     * @param concurrencyPerDevice Operaciones simultáneas permitidas por dispositivo.
+     * @param bytesPerSecond Presupuesto de ancho de banda por dispositivo (0 = sin límite).
+     */
+    public IoScheduler(int concurrencyPerDevice, long bytesPerSecond) {
+        this.defaultConcurrency = Math.max(1, concurrencyPerDevice);
+        this.defaultBytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    /**
+     * Instancia compartida por toda la aplicación.
+     */
+    public static IoScheduler shared() {
+        return SHARED;
+    }
+
+    /**
+     * Ajusta los límites del dispositivo que contiene la ruta indicada.
+     * Útil para discos mecánicos o unidades de red (concurrencia 1, ancho de banda acotado).
+     */
+    public void setDeviceLimits(Path anyPathOnDevice, int concurrency, long bytesPerSecond) {
+        Device d = device(anyPathOnDevice);
+        d.lock.lock();
+        try {
+            d.limit = Math.max(1, concurrency);
+            d.rate = Math.max(0, bytesPerSecond);
+            d.changed.signalAll();
+        } finally {
+            d.lock.unlock();
+        }
+    }
+
+    /**
+     * Registra actividad del usuario (scroll, clic, tecla). Los trabajos en segundo plano
+     * dejan de arrancar y se ralentizan hasta que pase la ventana de interacción.
+     */
+    public void noteUserActivity() {
+        lastInteraction = System.nanoTime();
+    }
+
+    public boolean isUserInteracting() {
+        long last = lastInteraction;
+        return last != 0 && System.nanoTime() - last < INTERACTION_WINDOW_NANOS;
+    }
+
+    /**
+     * Bloquea a un trabajo en segundo plano mientras el usuario esté interactuando.
+     * Pensado para bucles largos que no hacen E/S en cada paso (p. ej. renderizar páginas).
+     */
+    public void awaitForeground() throws InterruptedException {
+        while (isUserInteracting()) {
+            Thread.sleep(BACKOFF_MILLIS);
+        }
+    }
+
+    /**
+     * Reserva un hueco en los dispositivos de las rutas dadas. Los dispositivos se adquieren
+     * siempre en el mismo orden para evitar bloqueos mutuos entre copias cruzadas.
+     */
+    public Permit acquire(Priority priority, Path... paths) throws InterruptedException {
+        List<Device> list = new ArrayList<>();
+        for (Path p : paths) {
+            if (p == null) continue;
+            Device d = device(p);
+            if (!list.contains(d)) list.add(d);
+        }
+        list.sort(Comparator.comparing(d -> d.name));
+
+        List<Device> held = new ArrayList<>();
+        try {
+            for (Device d : list) {
+                d.acquire(priority, this);
+                held.add(d);
+            }
+        } catch (InterruptedException e) {
+            held.forEach(Device::release);
+            throw e;
+        }
+        return new Permit(priority, held);
+    }
+
+    /**
+     * Copia un fichero respetando los límites del planificador.
+     * Sobrescribe el destino y conserva la fecha de modificación (equivalente a COPY_ATTRIBUTES
+     * para lo que la biblioteca necesita). Si la copia se interrumpe, borra el fichero parcial;
+     * si no se puede abrir el origen o el destino, el destino no se toca.
+     */
+    public long copy(Path source, Path target, Priority priority) throws IOException, InterruptedException {
+        try (Permit permit = acquire(priority, source, target);
+             InputStream in = Files.newInputStream(source)) {
+            long copied = 0;
+            boolean ok = false;
+            // Abierto el destino ya está truncado: a partir de aquí, mejor nada que medio fichero
+            OutputStream out = Files.newOutputStream(target);
+            try (out) {
+                byte[] buf = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+                    out.write(buf, 0, n);
+                    copied += n;
+                    permit.account(n);
+                }
+                ok = true;
+            } finally {
+                if (!ok) Files.deleteIfExists(target);
+            }
+            Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+            return copied;
+        }
+    }
+
+    private Device device(Path path) {
+        Path abs = path.toAbsolutePath();
+        Path dir = abs.getParent() != null ? abs.getParent() : abs;
+        Object key = deviceKeys.computeIfAbsent(dir, IoScheduler::resolveDeviceKey);
+        return devices.computeIfAbsent(key, k -> new Device(k.toString(), defaultConcurrency, defaultBytesPerSecond));
+    }
+
+    private static Object resolveDeviceKey(Path dir) {
+        // FileStore necesita una ruta existente: subimos hasta el primer ancestro que exista
+        Path p = dir;
+        while (p != null && !Files.exists(p)) p = p.getParent();
+        if (p != null) {
+            try {
+                return Files.getFileStore(p);
+            } catch (IOException ignored) { }
+        }
+        Path root = dir.getRoot();
+        return root != null ? root : dir;
+    }
+
+    // ===== Dispositivo: concurrencia + cubeta de tokens =====
+
+    /**
+     * Usa ReentrantLock en lugar de synchronized/wait para que los hilos virtuales que
+     * esperan turno no bloqueen su hilo portador.
+     */
+    private static final class Device {
+        final String name;
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition changed = lock.newCondition();
+        int limit;
+        long rate;
+        int active;
+        int interactiveWaiting;
+        double tokens;
+        long lastRefill = System.nanoTime();
+
+        Device(String name, int limit, long rate) {
+            this.name = name;
+            this.limit = limit;
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        void acquire(Priority priority, IoScheduler owner) throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                if (priority == Priority.INTERACTIVE) {
+                    interactiveWaiting++;
+                    try {
+                        while (active >= limit) changed.await();
+                    } finally {
+                        interactiveWaiting--;
+                    }
+                } else {
+                    // El segundo plano espera a que no haya peticiones interactivas ni actividad del usuario
+                    while (active >= limit || interactiveWaiting > 0 || owner.isUserInteracting()) {
+                        changed.await(BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                }
+                active++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                active--;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Descuenta bytes del presupuesto y devuelve cuántos nanosegundos hay que esperar.
+         */
+        long reserve(long bytes) {
+            lock.lock();
+            try {
+                if (rate <= 0) return 0;
+                long now = System.nanoTime();
+                tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+                lastRefill = now;
+                tokens -= bytes;
+                return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // ===== Permiso =====
+
+    /**
+     * Hueco reservado en uno o varios dispositivos. Se libera con {@link #close()}.
+     */
+    public final class Permit implements AutoCloseable {
+        private final Priority priority;
+        private final List<Device> held;
+        private boolean closed;
+
+        private Permit(Priority priority, List<Device> held) {
+            this.priority = priority;
+            this.held = held;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        /**
+         * Anota bytes transferidos y duerme lo necesario para respetar el presupuesto del
+         * dispositivo y, en segundo plano, el ritmo reducido mientras el usuario interactúa.
+         */
+        public void account(long bytes) throws InterruptedException {
+            if (bytes <= 0) return;
+            long waitNanos = 0;
+            for (Device d : held) waitNanos = Math.max(waitNanos, d.reserve(bytes));
+            if (priority == Priority.BACKGROUND && isUserInteracting()) {
+                waitNanos = Math.max(waitNanos, bytes * 1_000_000_000L / BACKGROUND_RATE_WHILE_INTERACTING);
+            }
+            if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+
+        /**
+         * Envuelve un flujo de lectura para que cada lectura pase por {@link #account(long)}.
+         */
+        public InputStream throttle(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) accountQuietly(1);
+                    return b;
+                }
+                @Override public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) accountQuietly(n);
+                    return n;
+                }
+            };
+        }
+
+        /**
+         * Envuelve un flujo de escritura para que cada escritura pase por {@link #account(long)}.
+         */
+        public OutputStream throttle(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override public void write(int b) throws IOException {
+                    out.write(b);
+                    accountQuietly(1);
+                }
+                @Override public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    accountQuietly(len);
+                }
+            };
+        }
+
+        private void accountQuietly(long bytes) throws IOException {
+            try {
+                account(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("E/S interrumpida");
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            held.forEach(Device::release);
+        }
+    }
+}
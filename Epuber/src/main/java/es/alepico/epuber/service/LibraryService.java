@@ -7,12 +7,25 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class LibraryService {
 
+    private final IoScheduler io;
+    private final MetadataCache metadata;
+    private final MetadataStore store;
+
+    public LibraryService() {
+        this(IoScheduler.shared(), MetadataCache.shared(), MetadataStore.shared());
+    }
+
+    public LibraryService(IoScheduler io, MetadataCache metadata, MetadataStore store) {
+        this.io = io;
+        this.metadata = metadata;
+        this.store = store;
+    }
+
     public static class ScanResult {
         public int found, copied, skipped;
         public Exception error;
@@ -22,6 +35,11 @@ public class LibraryService {
     public interface LibraryListener {
         void onProgress(int current, int total, String message);
         void onLog(String message);
+        /**
+         * Fichero recién procesado (copiado, omitido o con error) y bytes copiados. Es el aviso
+         * por elemento: no lleva texto, así que no cuesta nada si no se muestra.
+         */
+        default void onFile(Path file, long bytes) {}
     }
 
     public List<Path> scanFiles(ConversionConfig cfg) {
@@ -33,8 +51,9 @@ public class LibraryService {
                         return false;
                     })
                     .filter(p -> checkDate(p, cfg.fromDate, cfg.toDate))
-                    .filter(p -> checkKeyword(p, cfg.keyword))
                     .filter(p -> checkSize(p, cfg.minSizeBytes))
+                    // La palabra clave va la última: puede necesitar leer metadatos
+                    .filter(p -> checkKeyword(p, cfg.keyword))
                     .sorted(Comparator.comparing(Path::toString))
                     .collect(Collectors.toList());
         } catch (IOException ex) {
@@ -45,8 +64,7 @@ public class LibraryService {
     public ScanResult copyFiles(List<Path> files, ConversionConfig cfg, LibraryListener listener) {
         ScanResult res = new ScanResult();
         res.found = files.size();
-        AtomicInteger count = new AtomicInteger(0);
-        
+
         try {
             if (cfg.target != null) Files.createDirectories(cfg.target);
         } catch (IOException e) { res.error = e; return res; }
@@ -55,22 +73,28 @@ public class LibraryService {
             // Simulación de chequeo de cancelación (se debería manejar desde fuera con thread interruption)
             if (Thread.currentThread().isInterrupted()) { res.cancelled = true; break; }
 
+            long bytes = 0;
             try {
                 Path dest = cfg.target.resolve(p.getFileName());
                 boolean exists = Files.exists(dest);
-                
-                if (cfg.onlyNew && exists) {
-                    res.skipped++; listener.onLog("Omitido (existe): " + p.getFileName());
-                } else if (!cfg.overwrite && exists) {
-                    res.skipped++; listener.onLog("Omitido (existe): " + p.getFileName());
+
+                // Copiados y omitidos sólo se cuentan (el resumen final da los totales); al
+                // registro van los errores
+                if (exists && (cfg.onlyNew || !cfg.overwrite)) {
+                    res.skipped++;
                 } else {
-                    Files.copy(p, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
-                    res.copied++; listener.onLog("Copiado: " + p.getFileName());
+                    // La copia pasa por el planificador: cede el disco a carátulas y lector
+                    bytes = io.copy(p, dest, IoScheduler.Priority.BACKGROUND);
+                    res.copied++;
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                res.cancelled = true;
+                break;
             } catch (Exception e) {
-                listener.onLog("Error: " + e.getMessage());
+                listener.onLog("Error en " + p.getFileName() + ": " + e.getMessage());
             }
-            listener.onProgress(count.incrementAndGet(), res.found, "Procesando...");
+            listener.onFile(p, bytes);
         }
         return res;
     }
@@ -86,7 +110,8 @@ public class LibraryService {
     
     private boolean checkKeyword(Path p, String k) {
         if (k == null || k.isBlank()) return true;
-        return p.getFileName().toString().toLowerCase().contains(k.toLowerCase());
+        if (p.getFileName().toString().toLowerCase(Locale.ROOT).contains(k.toLowerCase(Locale.ROOT))) return true;
+        return store.matches(p, metadata.get(p), k);
     }
     private boolean checkSize(Path p, long min) {
         try { return Files.size(p) >= min; } catch(Exception e){ return true; }
@@ -0,0 +1,242 @@
+package es.alepico.epuber.service;
+
+import es.alepico.epuber.model.BookInfo;
+import es.alepico.epuber.util.AppDirs;
+import es.alepico.epuber.util.StringUtil;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caché persistente de metadatos extraídos, indexada por ruta + tamaño + fecha de modificación.
+ * Cada libro se analiza una sola vez mientras no cambie en disco; el filtro por palabra clave,
+ * el nombre mostrado en la galería, las claves de duplicados y el listado leen de aquí.
+ *
+ * Se guarda como un fichero de texto tabulado en el directorio de datos de la aplicación.
+ */
+public class MetadataCache {
+
+    private static final String HEADER = "# epuber-metadata-cache v1";
+    private static final char LIST_SEP = '\u001F';
+    private static final char KV_SEP = '\u001E';
+
+    private static final MetadataCache SHARED =
+            new MetadataCache(AppDirs.resolve("metadata-cache.tsv"), new MetadataExtractor());
+
+    private record Entry(long size, long mtime, BookInfo info) { }
+
+    private final Path storeFile;
+    private final MetadataExtractor extractor;
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+    private volatile boolean dirty;
+
+    public MetadataCache(Path storeFile, MetadataExtractor extractor) {
+        this.storeFile = storeFile;
+        this.extractor = extractor;
+    }
+
+    public static MetadataCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Devuelve los metadatos del libro, extrayéndolos sólo si no están en caché o el fichero
+     * ha cambiado. Nunca devuelve null: en el peor caso usa el nombre del fichero.
+     */
+    public BookInfo get(Path file) {
+        return get(file, IoScheduler.Priority.INTERACTIVE);
+    }
+
+    public BookInfo get(Path file, IoScheduler.Priority priority) {
+        ensureLoaded();
+        Path key = file.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = stat(key);
+        if (attrs == null) return MetadataExtractor.fromFilename(file);
+
+        Entry e = entries.get(key);
+        if (e != null && isFresh(e, attrs)) return e.info();
+
+        try {
+            BookInfo info = extractor.extract(key, priority);
+            entries.put(key, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), info));
+            dirty = true;
+            return info;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return MetadataExtractor.fromFilename(file);
+        }
+    }
+
+    /**
+     * Metadatos en caché si siguen siendo válidos, sin extraer nada. Null si no hay.
+     */
+    public BookInfo peek(Path file) {
+        ensureLoaded();
+        Path key = file.toAbsolutePath().normalize();
+        Entry e = entries.get(key);
+        if (e == null) return null;
+        BasicFileAttributes attrs = stat(key);
+        return attrs != null && isFresh(e, attrs) ? e.info() : null;
+    }
+
+    /**
+     * Color dominante de la portada guardado para el libro, o -1 si no se conoce. Sólo mira la
+     * memoria (ni siquiera comprueba si el fichero ha cambiado), así que se puede llamar desde
+     * el hilo de JavaFX para pintar la celda antes de tener la miniatura.
+     */
+    public int coverColor(Path file) {
+        if (!loaded) return -1;
+        Entry e = entries.get(file.toAbsolutePath().normalize());
+        return e != null ? e.info().coverColor : -1;
+    }
+
+    /**
+     * Guarda el color dominante de la portada con el resto de metadatos del libro. Sólo si éstos
+     * ya están en caché: no extrae nada, así que nunca espera turno de E/S.
+     */
+    public void putCoverColor(Path file, int rgb) {
+        BookInfo info = peek(file);
+        if (info == null || info.coverColor == rgb) return;
+        info.coverColor = rgb;
+        dirty = true;
+    }
+
+    /**
+     * Registra metadatos ya extraídos (p. ej. por {@link MetadataEnricher}) con el tamaño y la
+     * fecha actuales del fichero. No hace nada si el fichero ya no existe.
+     */
+    public void put(Path file, BookInfo info) {
+        ensureLoaded();
+        Path key = file.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = stat(key);
+        if (attrs == null || info == null) return;
+        entries.put(key, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), info));
+        dirty = true;
+    }
+
+    /**
+     * Guarda en disco si hay cambios pendientes. Escribe en un temporal y lo renombra
+     * para no dejar la caché a medias si la aplicación se cierra durante la escritura.
+     * Si falla, los cambios siguen pendientes para el siguiente intento.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) return;
+        // Se limpia antes de recorrer: lo que cambie durante la escritura vuelve a marcarlo
+        dirty = false;
+        try {
+            writeStore();
+        } catch (IOException | RuntimeException e) {
+            dirty = true;
+            throw e;
+        }
+    }
+
+    private void writeStore() throws IOException {
+        Files.createDirectories(storeFile.getParent());
+        Path tmp = storeFile.resolveSibling(storeFile.getFileName() + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write(HEADER);
+            w.newLine();
+            for (Map.Entry<Path, Entry> me : entries.entrySet()) {
+                Entry e = me.getValue();
+                BookInfo info = e.info();
+                w.write(String.join("\t",
+                        StringUtil.escapeTsv(me.getKey().toString()),
+                        Long.toString(e.size()),
+                        Long.toString(e.mtime()),
+                        StringUtil.escapeTsv(info.title),
+                        StringUtil.escapeTsv(String.join(String.valueOf(LIST_SEP), info.authors)),
+                        StringUtil.escapeTsv(info.coverHref == null ? "" : info.coverHref),
+                        StringUtil.escapeTsv(joinIds(info.ids)),
+                        Integer.toString(info.pageCount),
+                        info.coverColor < 0 ? "" : HexFormat.of().toHexDigits(info.coverColor).substring(2)));
+                w.newLine();
+            }
+        }
+        Files.move(tmp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Carga el fichero la primera vez. {@code loaded} se publica al terminar, así que los demás
+     * hilos esperan aquí en lugar de ver el mapa a medio llenar.
+     */
+    private void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            try {
+                load();
+            } finally {
+                loaded = true;
+            }
+        }
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(storeFile)) return;
+        try (BufferedReader r = Files.newBufferedReader(storeFile, StandardCharsets.UTF_8)) {
+            String line = r.readLine();
+            if (!HEADER.equals(line)) return; // Formato desconocido: se regenera
+            while ((line = r.readLine()) != null) {
+                String[] f = line.split("\t", -1);
+                if (f.length < 7) continue;
+                try {
+                    BookInfo info = new BookInfo();
+                    info.title = StringUtil.unescapeTsv(f[3]);
+                    String authors = StringUtil.unescapeTsv(f[4]);
+                    if (!authors.isEmpty()) info.authors.addAll(List.of(authors.split(String.valueOf(LIST_SEP))));
+                    String cover = StringUtil.unescapeTsv(f[5]);
+                    info.coverHref = cover.isEmpty() ? null : cover;
+                    splitIds(StringUtil.unescapeTsv(f[6]), info.ids);
+                    if (f.length > 7) info.pageCount = Integer.parseInt(f[7]);
+                    if (f.length > 8 && !f[8].isEmpty()) info.coverColor = Integer.parseInt(f[8], 16);
+                    entries.put(Path.of(StringUtil.unescapeTsv(f[0])), new Entry(Long.parseLong(f[1]), Long.parseLong(f[2]), info));
+                } catch (RuntimeException badRow) {
+                    // Sólo se pierde esta fila; se volverá a extraer el libro cuando se pida
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {
+            // Caché ilegible: se ignora lo que falte y se reescribirá en el próximo save()
+        }
+    }
+
+    private static boolean isFresh(Entry e, BasicFileAttributes attrs) {
+        return e.size() == attrs.size() && e.mtime() == attrs.lastModifiedTime().toMillis();
+    }
+
+    private static BasicFileAttributes stat(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // ===== Serialización =====
+
+    static String joinIds(Map<String, String> ids) {
+        List<String> parts = new ArrayList<>();
+        ids.forEach((k, v) -> parts.add(k + KV_SEP + v));
+        return String.join(String.valueOf(LIST_SEP), parts);
+    }
+
+    static void splitIds(String raw, Map<String, String> out) {
+        if (raw.isEmpty()) return;
+        for (String part : raw.split(String.valueOf(LIST_SEP))) {
+            int i = part.indexOf(KV_SEP);
+            if (i > 0) out.put(part.substring(0, i), part.substring(i + 1));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package es.alepico.epuber.service;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Etapa de enriquecimiento en lote tras un escaneo: extrae los metadatos de todos los libros
+ * que aún no estén en la {@link MetadataCache}, un hilo virtual por libro. El paralelismo real
+ * lo marca el {@link IoScheduler} (huecos por dispositivo, prioridad BACKGROUND), así que un
+ * disco lento no recibe más lecturas de las que admite y la galería sigue teniendo prioridad.
+ */
+public class MetadataEnricher {
+
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(20);
+    /** Libros en vuelo a la vez; el resto espera sin crear hilos. */
+    private static final int MAX_IN_FLIGHT = 64;
+
+    /**
+     * Resumen de una pasada.
+     */
+    public record Report(int total, int extracted, int cached, int timedOut, long elapsedMillis) {
+        public double booksPerSecond() {
+            return elapsedMillis > 0 ? (extracted + cached) * 1000.0 / elapsedMillis : 0;
+        }
+
+        public String describe() {
+            return String.format(Locale.ROOT, "%d libros en %.1f s (%.0f libros/s): %d analizados, %d ya en caché, %d sin respuesta",
+                    total, elapsedMillis / 1000.0, booksPerSecond(), extracted, cached, timedOut);
+        }
+    }
+
+    public interface Listener {
+        default void onProgress(int done, int total) {}
+        default void onTimeout(Path file) {}
+    }
+
+    private final MetadataCache cache;
+    private final MetadataExtractor extractor;
+    private final Duration timeout;
+
+    public MetadataEnricher() {
+        this(MetadataCache.shared(), new MetadataExtractor(), DEFAULT_TIMEOUT);
+    }
+
+    public MetadataEnricher(MetadataCache cache, MetadataExtractor extractor, Duration timeout) {
+        this.cache = cache;
+        this.extractor = extractor;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Procesa la lista y vuelve cuando todos los libros están en caché o han agotado su plazo.
+     * Si se interrumpe el hilo llamante, cancela los libros pendientes y relanza la interrupción.
+     */
+    public Report enrich(List<Path> files, Listener listener) throws InterruptedException {
+        Listener l = listener != null ? listener : new Listener() { };
+        long start = System.nanoTime();
+        int total = files.size();
+        AtomicInteger done = new AtomicInteger(), extracted = new AtomicInteger(),
+                cached = new AtomicInteger(), timedOut = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            try {
+                for (Path file : files) {
+                    inFlight.acquire();
+                    exec.submit(() -> {
+                        try {
+                            enrichOne(file, extracted, cached, timedOut, l);
+                        } finally {
+                            inFlight.release();
+                            l.onProgress(done.incrementAndGet(), total);
+                        }
+                    });
+                }
+            } catch (InterruptedException e) {
+                exec.shutdownNow();
+                throw e;
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        return new Report(total, extracted.get(), cached.get(), timedOut.get(), elapsed);
+    }
+
+    private void enrichOne(Path file, AtomicInteger extracted, AtomicInteger cached,
+                           AtomicInteger timedOut, Listener l) {
+        if (cache.peek(file) != null) {
+            cached.incrementAndGet();
+            return;
+        }
+        try {
+            cache.put(file, extractor.extract(file, IoScheduler.Priority.BACKGROUND, timeout));
+            extracted.incrementAndGet();
+        } catch (TimeoutException e) {
+            // No se guarda: se volverá a intentar en el próximo escaneo o al mostrarlo
+            timedOut.incrementAndGet();
+            l.onTimeout(file);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package es.alepico.epuber.service;
+
+import es.alepico.epuber.model.BookInfo;
+import es.alepico.epuber.util.Identifiers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Extrae título, autores, portada e identificadores del contenido de un libro.
+ * Lógica migrada de 'getTitleAuthor'/'readEpubTitleAuthor'/'readPdfTitleAuthor' del proyecto
+ * original. Normalmente no se usa directamente sino a través de {@link MetadataCache}.
+ */
+public class MetadataExtractor {
+
+    private final IoScheduler io;
+
+    public MetadataExtractor() {
+        this(IoScheduler.shared());
+    }
+
+    public MetadataExtractor(IoScheduler io) {
+        this.io = io;
+    }
+
+    /**
+     * Extrae los metadatos; si el fichero no los tiene usa el patrón
+     * "Título - Autor.ext" del nombre de archivo.
+     */
+    public BookInfo extract(Path file, IoScheduler.Priority priority) throws InterruptedException {
+        BookInfo info;
+        // El hueco sólo limita las lecturas simultáneas: las sondas leen unos pocos KB
+        IoScheduler.Permit permit = io.acquire(priority, file);
+        try {
+            info = probe(file);
+        } finally {
+            permit.close();
+        }
+        return info != null ? info : fromFilename(file);
+    }
+
+    /**
+     * Como {@link #extract(Path, IoScheduler.Priority)}, pero la sonda corre en un hilo virtual
+     * aparte y se abandona si tarda más de {@code timeout} (contado desde que hay hueco de E/S).
+     * El hueco se libera al vencer el plazo para que un libro dañado no bloquee a los demás.
+     */
+    public BookInfo extract(Path file, IoScheduler.Priority priority, Duration timeout)
+            throws InterruptedException, TimeoutException {
+        BookInfo info = null;
+        IoScheduler.Permit permit = io.acquire(priority, file);
+        try {
+            FutureTask<BookInfo> task = new FutureTask<>(() -> probe(file));
+            Thread worker = Thread.ofVirtual().name("probe-" + file.getFileName()).start(task);
+            try {
+                info = task.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                info = null;
+            } catch (TimeoutException | InterruptedException e) {
+                worker.interrupt();
+                throw e;
+            }
+        } finally {
+            permit.close();
+        }
+        return info != null ? info : fromFilename(file);
+    }
+
+    private BookInfo probe(Path file) {
+        String lower = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        BookInfo info = null;
+        if (lower.endsWith(".epub")) info = readEpub(file);
+        else if (lower.endsWith(".pdf")) info = readPdf(file);
+        else if (isMobi(lower)) info = readMobi(file);
+        // ISBN-13 validado, ASIN, UUID y DOI con clave canónica para el índice de identificadores
+        if (info != null) info.ids = Identifiers.normalize(info.ids);
+        return info;
+    }
+
+    /**
+     * Heurística rápida basada en el nombre: "Título - Autor.ext".
+     */
+    public static BookInfo fromFilename(Path file) {
+        String base = file.getFileName().toString().replaceFirst("\\.[^.]+$", "");
+        String[] parts = base.split("\\s+-\\s+", 2);
+        if (parts.length == 2) return new BookInfo(parts[0], parts[1]);
+        return new BookInfo(base, "");
+    }
+
+    /**
+     * MOBI, AZW y AZW3 (KF8) comparten el contenedor PalmDB.
+     */
+    public static boolean isMobi(String lowerName) {
+        return lowerName.endsWith(".mobi") || lowerName.endsWith(".azw3") || lowerName.endsWith(".azw");
+    }
+
+    // ===== EPUB =====
+
+    /**
+     * Sólo se leen el directorio central, container.xml y el bloque de metadatos del OPF
+     * (unos pocos KB por libro), sin abrir el EPUB con ZipFile.
+     */
+    private BookInfo readEpub(Path epub) {
+        try {
+            OpfMetadataProbe.Result r = OpfMetadataProbe.probeEpub(epub);
+            if (r == null) return null;
+            BookInfo info = new BookInfo();
+            if (r.title() != null) info.title = r.title();
+            info.authors.addAll(r.creators());
+            info.ids.putAll(r.identifiers());
+            info.coverHref = r.coverHref();
+            return info;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // ===== PDF =====
+
+    /**
+     * Sonda de bajo consumo: no carga el documento entero para leer el diccionario Info.
+     */
+    private BookInfo readPdf(Path pdf) {
+        try {
+            PdfProbe.Result r = PdfProbe.probe(pdf);
+            BookInfo res = new BookInfo(r.title() != null ? r.title() : fromFilename(pdf).title, null);
+            res.authors.addAll(r.authors());
+            res.ids.putAll(r.identifiers());
+            res.pageCount = r.pageCount();
+            return res;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // ===== MOBI / AZW3 =====
+
+    private BookInfo readMobi(Path mobi) {
+        try (MobiHeaderReader r = MobiHeaderReader.open(mobi)) {
+            BookInfo res = new BookInfo(r.getTitle() != null ? r.getTitle() : fromFilename(mobi).title, null);
+            res.authors.addAll(r.getAuthors());
+            if (r.getIsbn() != null) res.ids.put("isbn", r.getIsbn());
+            if (r.getAsin() != null) res.ids.put("asin", r.getAsin());
+            return res;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package es.alepico.epuber.service;
 
 import es.alepico.epuber.model.BookMetadata;
+import es.alepico.epuber.util.Isbn;
+import es.alepico.epuber.util.JsonReader;
+import es.alepico.epuber.util.StringUtil;
 
 import java.io.IOException;
 import java.net.URI;
@@ -9,24 +12,87 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.util.List;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Servicio encargado de buscar información de libros en internet (OpenLibrary)
  * y de guardar ficheros de metadatos auxiliares (sidecars).
+ * Las búsquedas son asíncronas ({@code sendAsync}), se limitan en concurrencia y ritmo
+ * y sus respuestas se guardan en {@link OnlineLookupCache}.
  */
-public class MetadataService {
+public class MetadataService implements AutoCloseable {
+
+    public static final String DEFAULT_BASE_URL = "https://openlibrary.org";
+    /** Campos pedidos a search.json: la respuesta pasa de decenas de KB a unos cientos de bytes. */
+    private static final String FIELDS = "title,author_name,first_sentence,first_publish_year";
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(15);
+    private static final ScheduledExecutorService PACER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "openlibrary-pacer");
+        t.setDaemon(true);
+        return t;
+    });
 
     private final HttpClient client;
+    private final String baseUrl;
+    private final OnlineLookupCache cache;
+    private final OpenLibraryIndex localIndex;
+    private final int maxConcurrent;
+    private final long intervalNanos;
+
+    // Cola de peticiones pendientes: como mucho maxConcurrent en vuelo y una cada intervalNanos
+    private final Deque<Runnable> queue = new ArrayDeque<>();
+    private final Map<String, CompletableFuture<Optional<BookMetadata>>> inFlight = new ConcurrentHashMap<>();
+    private int running;
+    private long nextSlot;
+    private boolean pumpScheduled;
 
+    /**
+     * Servicio contra OpenLibrary (o la URL de la propiedad {@code epuber.openlibrary.url},
+     * p. ej. un servidor local de pruebas): 4 peticiones simultáneas, 3 por segundo.
+     * Si se ha importado un volcado ({@link OpenLibraryIndex#openDefault()}) se consulta antes.
+     */
     public MetadataService() {
-        this.client = HttpClient.newHttpClient();
+        this(HttpClient.newBuilder().connectTimeout(REQUEST_TIMEOUT).build(),
+                System.getProperty("epuber.openlibrary.url", DEFAULT_BASE_URL),
+                OnlineLookupCache.shared(), OpenLibraryIndex.openDefault(), 4, 3);
+    }
+
+    public MetadataService(HttpClient client, String baseUrl, OnlineLookupCache cache,
+                           int maxConcurrent, double requestsPerSecond) {
+        this(client, baseUrl, cache, null, maxConcurrent, requestsPerSecond);
+    }
+
+    /**
+     * @param localIndex Índice local de un volcado de OpenLibrary, o null para ir siempre a la red.
+     */
+    public MetadataService(HttpClient client, String baseUrl, OnlineLookupCache cache, OpenLibraryIndex localIndex,
+                           int maxConcurrent, double requestsPerSecond) {
+        this.client = client;
+        this.localIndex = localIndex;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.cache = cache;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.intervalNanos = requestsPerSecond > 0 ? (long) (1e9 / requestsPerSecond) : 0;
+    }
+
+    /**
+     * Cierra el índice local, si hay. Las búsquedas que sigan llegando van a la red.
+     */
+    @Override
+    public void close() throws IOException {
+        if (localIndex != null) localIndex.close();
     }
 
     /**
@@ -38,97 +104,222 @@ public class MetadataService {
      * @throws InterruptedException Si la petición es interrumpida.
      */
     public Optional<BookMetadata> fetchFromOpenLibrary(String title) throws IOException, InterruptedException {
-        if (title == null || title.isBlank()) return Optional.empty();
+        try {
+            return lookupAsync(title).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
 
-        String query = URLEncoder.encode(title, StandardCharsets.UTF_8);
-        String url = "https://openlibrary.org/search.json?limit=1&title=" + query;
-
-        HttpRequest req = HttpRequest.newBuilder(URI.create(url)).build();
-        HttpResponse<String> resp = client.send(req, HttpResponse.BodyHandlers.ofString());
-
-        if (resp.statusCode() >= 200 && resp.statusCode() < 300) {
-            String json = resp.body();
-            
-            // Extraemos los datos usando Regex para no depender de librerías externas (Gson/Jackson)
-            // tal como estaba en el proyecto original.
-            String foundTitle = extractJsonField(json, "title");
-            
-            if (foundTitle != null) {
-                BookMetadata meta = new BookMetadata();
-                meta.title = foundTitle;
-                
-                String author = extractJsonArrayFirst(json, "author_name");
-                if (author != null) meta.authors.add(author);
-                
-                String sentence = extractJsonField(json, "first_sentence");
-                if (sentence != null) {
-                    meta.synopsis = sentence.replaceAll("^\"|\"$", "");
-                }
-                
-                // Intentamos sacar el año si existe
-                String year = extractJsonField(json, "first_publish_year");
-                if (year != null) {
-                    // Podríamos parsearlo a LocalDate si fuera necesario, 
-                    // aquí lo dejamos simple o lo asignamos si extendemos el modelo.
+    /**
+     * Búsqueda asíncrona por título. Responde al instante si está en caché (incluidos los
+     * "no encontrado" recientes) y comparte la petición si ya hay otra igual en curso.
+     * Los errores de red o HTTP 5xx/429 completan el futuro con excepción y no se cachean.
+     */
+    public CompletableFuture<Optional<BookMetadata>> lookupAsync(String title) {
+        return lookupAsync(title, null);
+    }
+
+    /**
+     * Como {@link #lookupAsync(String)}, afinando por autor si se conoce. Primero se consulta
+     * el índice local; la red sólo se usa si el libro no está en él.
+     */
+    public CompletableFuture<Optional<BookMetadata>> lookupAsync(String title, String author) {
+        if (title == null || title.isBlank()) return CompletableFuture.completedFuture(Optional.empty());
+        if (localIndex != null) {
+            try {
+                Optional<BookMetadata> local = localIndex.findByTitle(title, author);
+                if (local.isPresent()) return CompletableFuture.completedFuture(local);
+            } catch (IOException ignored) {
+                // Índice dañado o inaccesible: se pregunta a la red
+            }
+        }
+        String url = baseUrl + "/search.json?limit=1&fields=" + FIELDS
+                + "&title=" + URLEncoder.encode(title.trim(), StandardCharsets.UTF_8);
+        if (author != null && !author.isBlank()) {
+            url += "&author=" + URLEncoder.encode(author.trim(), StandardCharsets.UTF_8);
+        }
+        return remote(url);
+    }
+
+    /**
+     * Búsqueda por ISBN (10 o 13, con o sin guiones): índice local y, si falla, la red.
+     */
+    public CompletableFuture<Optional<BookMetadata>> lookupIsbnAsync(String isbn) {
+        String isbn13 = Isbn.toIsbn13(isbn);
+        if (isbn13 == null) return CompletableFuture.completedFuture(Optional.empty());
+        if (localIndex != null) {
+            try {
+                Optional<BookMetadata> local = localIndex.findByIsbn(isbn13);
+                if (local.isPresent()) return CompletableFuture.completedFuture(local);
+            } catch (IOException ignored) {
+                // Índice dañado o inaccesible: se pregunta a la red
+            }
+        }
+        return remote(baseUrl + "/search.json?limit=1&fields=" + FIELDS + "&isbn=" + isbn13);
+    }
+
+    private CompletableFuture<Optional<BookMetadata>> remote(String url) {
+        OnlineLookupCache.Lookup cached = cache.get(url);
+        if (cached.cached()) return CompletableFuture.completedFuture(cached.result());
+
+        CompletableFuture<Optional<BookMetadata>> created = new CompletableFuture<>();
+        CompletableFuture<Optional<BookMetadata>> existing = inFlight.putIfAbsent(url, created);
+        if (existing != null) return existing;
+        created.whenComplete((r, e) -> inFlight.remove(url, created));
+        enqueue(() -> send(url, created));
+        return created;
+    }
+
+    private void send(String url, CompletableFuture<Optional<BookMetadata>> result) {
+        CompletableFuture<HttpResponse<String>> sent;
+        try {
+            HttpRequest req = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(REQUEST_TIMEOUT)
+                    .header("User-Agent", "Epuber (metadata lookup)")
+                    .build();
+            sent = client.sendAsync(req, HttpResponse.BodyHandlers.ofString());
+        } catch (RuntimeException e) {
+            // URI no válida o cliente cerrado: la petición no llega a salir, pero libera el hueco
+            finished();
+            result.completeExceptionally(e);
+            return;
+        }
+        sent.whenComplete((resp, err) -> {
+            finished();
+            if (err != null) {
+                result.completeExceptionally(err);
+            } else if (resp.statusCode() == 429 || resp.statusCode() >= 500) {
+                result.completeExceptionally(new IOException("OpenLibrary respondió HTTP " + resp.statusCode()));
+            } else {
+                Optional<BookMetadata> meta = resp.statusCode() >= 200 && resp.statusCode() < 300
+                        ? parseSearchResponse(resp.body()) : Optional.empty();
+                cache.put(url, meta);
+                result.complete(meta);
+            }
+        });
+    }
+
+    // ===== Concurrencia y ritmo =====
+
+    private synchronized void enqueue(Runnable request) {
+        queue.addLast(request);
+        pump();
+    }
+
+    private synchronized void finished() {
+        running--;
+        pump();
+    }
+
+    private synchronized void pump() {
+        while (running < maxConcurrent && !queue.isEmpty()) {
+            long now = System.nanoTime();
+            if (now < nextSlot) {
+                if (!pumpScheduled) {
+                    pumpScheduled = true;
+                    PACER.schedule(() -> {
+                        synchronized (this) {
+                            pumpScheduled = false;
+                            pump();
+                        }
+                    }, nextSlot - now, TimeUnit.NANOSECONDS);
                 }
+                return;
+            }
+            nextSlot = now + intervalNanos;
+            running++;
+            queue.pollFirst().run();
+        }
+    }
 
-                return Optional.of(meta);
+    /**
+     * Lee de una respuesta de search.json sólo el primer elemento de {@code docs} (título,
+     * primer autor, primera frase y año) y deja de leer ahí: el resto no se recorre.
+     * A diferencia de las antiguas expresiones regulares respeta comillas escapadas, no
+     * confunde campos de otros objetos y acepta first_sentence como cadena, array u objeto.
+     */
+    static Optional<BookMetadata> parseSearchResponse(String json) {
+        try {
+            JsonReader r = new JsonReader(json);
+            r.beginObject();
+            while (r.hasNext()) {
+                if (!"docs".equals(r.nextName()) || r.peek() != JsonReader.Token.BEGIN_ARRAY) {
+                    r.skipValue();
+                    continue;
+                }
+                r.beginArray();
+                if (!r.hasNext() || r.peek() != JsonReader.Token.BEGIN_OBJECT) return Optional.empty();
+                return readDoc(r);
             }
+        } catch (IOException | RuntimeException ignored) {
+            // Respuesta mal formada: se trata como "sin resultado"
         }
-        
         return Optional.empty();
     }
 
+    private static Optional<BookMetadata> readDoc(JsonReader r) throws IOException {
+        String title = null, author = null, sentence = null;
+        long year = 0;
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "title" -> title = firstString(r);
+                case "author_name" -> author = firstString(r);
+                case "first_sentence" -> sentence = firstString(r);
+                case "first_publish_year" -> {
+                    if (r.peek() == JsonReader.Token.NUMBER) year = r.nextLong();
+                    else r.skipValue();
+                }
+                default -> r.skipValue();
+            }
+        }
+        if (title == null || title.isBlank()) return Optional.empty();
+
+        BookMetadata meta = new BookMetadata();
+        meta.title = title;
+        if (author != null && !author.isBlank()) meta.authors.add(author);
+        meta.synopsis = StringUtil.blankToNull(sentence);
+        if (year > 0 && year < 10000) meta.date = LocalDate.of((int) year, 1, 1);
+        return Optional.of(meta);
+    }
+
     /**
-     * Guarda un archivo de texto simple (.metadata.txt) junto al archivo del libro.
+     * Cadena directa, primer elemento de un array o campo "value" de un objeto.
      */
-    public void saveSidecar(Path bookFile, BookMetadata meta) throws IOException {
-        if (bookFile == null || meta == null) return;
-
-        Path sidecar = bookFile.resolveSibling(bookFile.getFileName().toString() + ".metadata.txt");
-        
-        String tagsStr = (meta.tags != null) ? String.join(", ", meta.tags) : "";
-        String synopsisStr = (meta.synopsis != null) ? meta.synopsis : "";
-
-        List<String> lines = List.of(
-                "Título: " + (meta.title != null ? meta.title : ""),
-                "Autor: " + meta.getAuthorString(),
-                "Etiquetas: " + tagsStr,
-                "Sinopsis:",
-                synopsisStr
-        );
-
-        Files.write(sidecar, lines, StandardCharsets.UTF_8, 
-                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-    }
-
-    // ===== Métodos privados de parsing (Regex) extraídos de Epuber.java =====
-
-    private String extractJsonField(String json, String field) {
-        // Busca: "field": "valor"
-        Pattern p = Pattern.compile("\"" + Pattern.quote(field) + "\"\\s*:\\s*\"(.*?)\"");
-        Matcher m = p.matcher(json);
-        if (m.find()) return m.group(1);
-        
-        // Fallback para números (sin comillas): "field": 1234
-        Pattern pNum = Pattern.compile("\"" + Pattern.quote(field) + "\"\\s*:\\s*([0-9]+)");
-        Matcher mNum = pNum.matcher(json);
-        if (mNum.find()) return mNum.group(1);
-        
-        return null;
-    }
-
-    private String extractJsonArrayFirst(String json, String field) {
-        // Busca: "field": ["valor1", "valor2"]
-        Pattern p = Pattern.compile("\"" + Pattern.quote(field) + "\"\\s*:\\s*\\[(.*?)\\]");
-        Matcher m = p.matcher(json);
-        if (m.find()) {
-            String content = m.group(1);
-            String[] parts = content.split(",");
-            if (parts.length > 0) {
-                return parts[0].replaceAll("^\"|\"$", "").trim();
+    private static String firstString(JsonReader r) throws IOException {
+        String found = null;
+        switch (r.peek()) {
+            case STRING, NUMBER -> found = r.nextString();
+            case BEGIN_ARRAY -> {
+                r.beginArray();
+                while (r.hasNext()) {
+                    if (found == null) found = firstString(r);
+                    else r.skipValue();
+                }
+                r.endArray();
+            }
+            case BEGIN_OBJECT -> {
+                r.beginObject();
+                while (r.hasNext()) {
+                    if ("value".equals(r.nextName()) && found == null) found = firstString(r);
+                    else r.skipValue();
+                }
+                r.endObject();
             }
+            default -> r.skipValue();
         }
-        return null;
+        return found;
+    }
+
+    /**
+     * Exporta los metadatos a un archivo de texto simple (.metadata.txt) junto al libro.
+     * Sólo para intercambio con el formato antiguo: las ediciones se guardan en {@link MetadataStore}.
+     */
+    public void saveSidecar(Path bookFile, BookMetadata meta) throws IOException {
+        if (bookFile == null || meta == null) return;
+        MetadataStore.writeSidecar(bookFile, meta);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,516 @@
+package es.alepico.epuber.service;
+
+import es.alepico.epuber.model.BookInfo;
+import es.alepico.epuber.model.BookMetadata;
+import es.alepico.epuber.util.AppDirs;
+import es.alepico.epuber.util.StringUtil;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Almacén único de los metadatos editados por el usuario, en lugar de un {@code .metadata.txt}
+ * junto a cada libro. Las ediciones se indexan por la identidad del contenido (tamaño + resumen
+ * de los primeros y últimos 64 KB), así que siguen al libro aunque se mueva o se renombre.
+ *
+ * En disco son dos ficheros tabulados en el directorio de datos: una instantánea compactada
+ * ({@code metadata-store.tsv}) y un registro al que sólo se añaden líneas
+ * ({@code metadata-store.log}). Cada edición es una línea añadida al registro; cuando éste
+ * crece más que la instantánea se reescribe todo en una nueva instantánea y se vacía el registro.
+ * Una línea a medias por un cierre brusco se descarta al cargar.
+ */
+public class MetadataStore {
+
+    private static final String HEADER = "# epuber-metadata-store v1";
+    private static final char LIST_SEP = '\u001F';
+    private static final int SAMPLE = 64 * 1024;
+    /** Líneas de registro a partir de las que se considera compactar. */
+    private static final int COMPACT_MIN_RECORDS = 512;
+
+    private static final MetadataStore SHARED =
+            new MetadataStore(AppDirs.resolve("metadata-store.tsv"), AppDirs.resolve("metadata-store.log"));
+
+    /** Edición vigente; la ruta y la fecha sirven para no recalcular el resumen del contenido. */
+    private record Edit(long editedAt, String path, long mtime, BookMetadata meta) { }
+
+    private record Hint(long size, long mtime, String key) { }
+
+    private final Path snapshotFile;
+    private final Path logFile;
+    private final Map<String, Edit> edits = new ConcurrentHashMap<>();
+    private final Map<Path, Hint> hints = new ConcurrentHashMap<>();
+    /** Tamaños con alguna edición: si un fichero no coincide, no hace falta leerlo. */
+    private final Set<Long> sizes = ConcurrentHashMap.newKeySet();
+    private BufferedWriter log;
+    private int logRecords;
+    private volatile boolean loaded;
+
+    public MetadataStore(Path snapshotFile, Path logFile) {
+        this.snapshotFile = snapshotFile;
+        this.logFile = logFile;
+    }
+
+    public static MetadataStore shared() {
+        return SHARED;
+    }
+
+    // ===== Consulta =====
+
+    /**
+     * Metadatos editados del libro (una copia que se puede modificar), o null si no hay.
+     */
+    public BookMetadata get(Path file) {
+        ensureLoaded();
+        if (edits.isEmpty()) return null;
+        Path key = file.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = stat(key);
+        if (attrs == null) return null;
+        String id = identify(key, attrs);
+        Edit e = id != null ? edits.get(id) : null;
+        return e != null ? copy(e.meta()) : null;
+    }
+
+    /**
+     * Metadatos extraídos con las ediciones del usuario encima (título, autores e
+     * identificadores). Devuelve el mismo objeto si el libro no tiene ediciones.
+     */
+    public BookInfo apply(Path file, BookInfo extracted) {
+        BookMetadata m = get(file);
+        if (m == null) return extracted;
+        BookInfo out = new BookInfo();
+        out.title = StringUtil.defaultIfBlank(m.title, extracted.title);
+        out.authors.addAll(m.authors.isEmpty() ? extracted.authors : m.authors);
+        out.coverHref = extracted.coverHref;
+        out.ids.putAll(extracted.ids);
+        out.ids.putAll(m.ids);
+        out.pageCount = extracted.pageCount;
+        out.coverColor = extracted.coverColor;
+        return out;
+    }
+
+    /**
+     * Filtro por palabra clave sobre los metadatos efectivos, incluidas las etiquetas editadas.
+     */
+    public boolean matches(Path file, BookInfo extracted, String keyword) {
+        if (keyword == null || keyword.isBlank()) return true;
+        BookMetadata m = get(file);
+        if (m == null) return extracted.matches(keyword);
+        if (apply(file, extracted).matches(keyword)) return true;
+        String low = keyword.toLowerCase(Locale.ROOT);
+        for (String tag : m.tags) {
+            if (tag.toLowerCase(Locale.ROOT).contains(low)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Clave de contenido con la que está guardada la edición del libro, o null si no tiene. Sirve
+     * para retirarla con {@link #forget} después de modificar el fichero, cuando ya no se puede
+     * identificar por su contenido.
+     */
+    public String keyOf(Path file) {
+        ensureLoaded();
+        if (edits.isEmpty()) return null;
+        Path path = file.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = stat(path);
+        String id = attrs != null ? identify(path, attrs) : null;
+        return id != null && edits.containsKey(id) ? id : null;
+    }
+
+    public boolean isEmpty() {
+        ensureLoaded();
+        return edits.isEmpty();
+    }
+
+    // ===== Edición =====
+
+    /**
+     * Guarda (o sustituye) la edición del libro. Queda en disco al volver.
+     */
+    public void put(Path file, BookMetadata meta) throws IOException {
+        ensureLoaded();
+        Path path = file.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        String id = contentKey(path, attrs.size());
+        long mtime = attrs.lastModifiedTime().toMillis();
+        hints.put(path, new Hint(attrs.size(), mtime, id));
+        Edit e = new Edit(System.currentTimeMillis(), path.toString(), mtime, copy(meta));
+        synchronized (this) {
+            append(encodePut(id, e));
+            edits.put(id, e);
+            sizes.add(attrs.size());
+            maybeCompact();
+        }
+    }
+
+    /**
+     * Descarta la edición del libro; vuelven a mostrarse los metadatos del propio fichero.
+     */
+    public void remove(Path file) throws IOException {
+        String id = keyOf(file);
+        if (id != null) forget(id);
+    }
+
+    /**
+     * Descarta la edición guardada con esa clave (de {@link #keyOf}). No hace nada si ya no está.
+     */
+    public void forget(String id) throws IOException {
+        ensureLoaded();
+        if (!edits.containsKey(id)) return;
+        synchronized (this) {
+            append(String.join("\t", "D", id, Long.toString(System.currentTimeMillis())));
+            edits.remove(id);
+            maybeCompact();
+        }
+    }
+
+    /**
+     * Cierra el registro y lo vuelca en la instantánea si tiene líneas pendientes.
+     */
+    public synchronized void save() throws IOException {
+        if (!loaded) return;
+        if (logRecords > 0) compact();
+        else closeLog();
+    }
+
+    /**
+     * Reescribe la instantánea con las ediciones vigentes (temporal + renombrado atómico) y
+     * borra el registro. Si se cae entre ambos pasos, reaplicar el registro no cambia nada.
+     */
+    public synchronized void compact() throws IOException {
+        ensureLoaded();
+        closeLog();
+        Files.createDirectories(snapshotFile.getParent());
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write(HEADER);
+            w.newLine();
+            for (Map.Entry<String, Edit> me : edits.entrySet()) {
+                w.write(encodePut(me.getKey(), me.getValue()));
+                w.newLine();
+            }
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(logFile);
+        logRecords = 0;
+    }
+
+    // ===== Formato heredado (.metadata.txt) =====
+
+    public static Path sidecarFor(Path book) {
+        return book.resolveSibling(book.getFileName().toString() + ".metadata.txt");
+    }
+
+    /**
+     * Lee el {@code .metadata.txt} del libro, o null si no existe.
+     */
+    public static BookMetadata readSidecar(Path book) throws IOException {
+        Path sidecar = sidecarFor(book);
+        if (!Files.isRegularFile(sidecar)) return null;
+        BookMetadata m = new BookMetadata();
+        StringBuilder synopsis = null;
+        for (String line : Files.readAllLines(sidecar, StandardCharsets.UTF_8)) {
+            if (synopsis != null) {
+                if (!synopsis.isEmpty()) synopsis.append('\n');
+                synopsis.append(line);
+            } else if (line.startsWith("Título:")) {
+                m.title = StringUtil.defaultIfBlank(sidecarValue(line), m.title);
+            } else if (line.startsWith("Autor:")) {
+                m.authors = StringUtil.parseList(sidecarValue(line), ";");
+            } else if (line.startsWith("Etiquetas:")) {
+                m.tags = StringUtil.parseList(sidecarValue(line), ",");
+            } else if (line.startsWith("Sinopsis:")) {
+                synopsis = new StringBuilder(sidecarValue(line));
+            }
+        }
+        if (synopsis != null) m.synopsis = StringUtil.blankToNull(synopsis.toString());
+        return m;
+    }
+
+    public static void writeSidecar(Path book, BookMetadata meta) throws IOException {
+        List<String> lines = List.of(
+                "Título: " + (meta.title != null ? meta.title : ""),
+                "Autor: " + meta.getAuthorString(),
+                "Etiquetas: " + String.join(", ", meta.tags),
+                "Sinopsis:",
+                meta.synopsis != null ? meta.synopsis : ""
+        );
+        Files.write(sidecarFor(book), lines, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Importa los {@code .metadata.txt} existentes de los libros indicados. Con
+     * {@code deleteSidecars} borra cada uno tras importarlo. Los que no se pueden leer se omiten.
+     * Devuelve el número de libros importados.
+     */
+    public int importSidecars(Collection<Path> books, boolean deleteSidecars) throws IOException {
+        int imported = 0;
+        for (Path book : books) {
+            BookMetadata m;
+            try {
+                m = readSidecar(book);
+            } catch (IOException e) {
+                continue;
+            }
+            if (m == null) continue;
+            put(book, m);
+            if (deleteSidecars) Files.deleteIfExists(sidecarFor(book));
+            imported++;
+        }
+        return imported;
+    }
+
+    /**
+     * Escribe un {@code .metadata.txt} por cada libro de la lista que tenga ediciones.
+     * Devuelve el número de ficheros escritos.
+     */
+    public int exportSidecars(Collection<Path> books) throws IOException {
+        int written = 0;
+        for (Path book : books) {
+            BookMetadata m = get(book);
+            if (m == null) continue;
+            writeSidecar(book, m);
+            written++;
+        }
+        return written;
+    }
+
+    private static String sidecarValue(String line) {
+        return line.substring(line.indexOf(':') + 1).trim();
+    }
+
+    // ===== Identidad del contenido =====
+
+    /**
+     * Clave del libro sin leerlo si la ruta, el tamaño y la fecha coinciden con lo ya visto,
+     * y sin leerlo tampoco si ninguna edición tiene ese tamaño. Null si no puede tener edición.
+     */
+    private String identify(Path path, BasicFileAttributes attrs) {
+        long mtime = attrs.lastModifiedTime().toMillis();
+        Hint h = hints.get(path);
+        if (h != null && h.size() == attrs.size() && h.mtime() == mtime) return h.key();
+        if (!sizes.contains(attrs.size())) return null;
+        try {
+            String id = contentKey(path, attrs.size());
+            hints.put(path, new Hint(attrs.size(), mtime, id));
+            return id;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * "tamaño:resumen" con SHA-256 (truncado a 128 bits) de los primeros y últimos 64 KB.
+     */
+    static String contentKey(Path file, long size) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(SAMPLE, size));
+            digestRange(ch, 0, buf, md);
+            if (size > SAMPLE) {
+                long tail = Math.max(SAMPLE, size - SAMPLE);
+                buf = ByteBuffer.allocate((int) (size - tail));
+                digestRange(ch, tail, buf, md);
+            }
+        }
+        return size + ":" + HexFormat.of().formatHex(md.digest(), 0, 16);
+    }
+
+    private static void digestRange(FileChannel ch, long pos, ByteBuffer buf, MessageDigest md) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos + buf.position());
+            if (n < 0) throw new IOException("Fichero truncado durante la lectura");
+        }
+        buf.flip();
+        md.update(buf);
+    }
+
+    private static long sizeOf(String id) {
+        return Long.parseLong(id.substring(0, id.indexOf(':')));
+    }
+
+    // ===== Registro =====
+
+    private void append(String line) throws IOException {
+        if (log == null) {
+            Files.createDirectories(logFile.getParent());
+            boolean fresh = !Files.exists(logFile) || Files.size(logFile) == 0;
+            boolean torn = !fresh && !endsWithNewline(logFile);
+            log = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            if (fresh) {
+                log.write(HEADER);
+                log.newLine();
+            } else if (torn) {
+                log.newLine(); // Cierra la línea a medias para que no se mezcle con la nueva
+            }
+        }
+        log.write(line);
+        log.newLine();
+        log.flush();
+        logRecords++;
+    }
+
+    private void maybeCompact() throws IOException {
+        if (logRecords >= COMPACT_MIN_RECORDS && logRecords > edits.size()) compact();
+    }
+
+    private void closeLog() throws IOException {
+        if (log == null) return;
+        try {
+            log.close();
+        } finally {
+            log = null;
+        }
+    }
+
+    private static boolean endsWithNewline(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            return ch.read(b, ch.size() - 1) == 1 && b.get(0) == '\n';
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            load(snapshotFile);
+            logRecords = load(logFile);
+            edits.forEach((id, e) -> {
+                sizes.add(sizeOf(id));
+                hints.put(Path.of(e.path()), new Hint(sizeOf(id), e.mtime(), id));
+            });
+            loaded = true;
+        }
+    }
+
+    /**
+     * Aplica las líneas del fichero en orden y devuelve cuántas había.
+     */
+    private int load(Path file) {
+        if (!Files.isRegularFile(file)) return 0;
+        int records = 0;
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = r.readLine();
+            if (!HEADER.equals(line)) return 0; // Formato desconocido
+            while ((line = r.readLine()) != null) {
+                records++;
+                try {
+                    String[] f = line.split("\t", -1);
+                    if ("D".equals(f[0]) && f.length >= 3) edits.remove(f[1]);
+                    else if ("P".equals(f[0]) && f.length >= 17) edits.put(f[1], decodePut(f));
+                } catch (RuntimeException ignored) {
+                    // Línea incompleta o dañada: se descarta y se sigue con la siguiente
+                }
+            }
+        } catch (IOException ignored) {
+            // Lo leído hasta el error se conserva
+        }
+        return records;
+    }
+
+    // ===== Serialización =====
+
+    private static String encodePut(String id, Edit e) {
+        BookMetadata m = e.meta();
+        return String.join("\t",
+                "P", id,
+                Long.toString(e.editedAt()),
+                StringUtil.escapeTsv(e.path()),
+                Long.toString(e.mtime()),
+                StringUtil.escapeTsv(m.title),
+                StringUtil.escapeTsv(joinList(m.authors)),
+                StringUtil.escapeTsv(nz(m.publisher)),
+                m.date != null ? m.date.toString() : "",
+                StringUtil.escapeTsv(joinList(m.languages)),
+                StringUtil.escapeTsv(nz(m.synopsis)),
+                StringUtil.escapeTsv(nz(m.series)),
+                m.seriesIndex != null ? m.seriesIndex.toString() : "",
+                m.issued != null ? m.issued.toString() : "",
+                StringUtil.escapeTsv(joinList(m.tags)),
+                StringUtil.escapeTsv(MetadataCache.joinIds(m.ids)),
+                m.rating != null ? m.rating.toString() : "");
+    }
+
+    private static Edit decodePut(String[] f) {
+        BookMetadata m = new BookMetadata();
+        m.title = StringUtil.unescapeTsv(f[5]);
+        m.authors = splitList(StringUtil.unescapeTsv(f[6]));
+        m.publisher = StringUtil.blankToNull(StringUtil.unescapeTsv(f[7]));
+        m.date = f[8].isEmpty() ? null : LocalDate.parse(f[8]);
+        m.languages = splitList(StringUtil.unescapeTsv(f[9]));
+        m.synopsis = StringUtil.blankToNull(StringUtil.unescapeTsv(f[10]));
+        m.series = StringUtil.blankToNull(StringUtil.unescapeTsv(f[11]));
+        m.seriesIndex = f[12].isEmpty() ? null : Double.valueOf(f[12]);
+        m.issued = f[13].isEmpty() ? null : LocalDate.parse(f[13]);
+        m.tags = splitList(StringUtil.unescapeTsv(f[14]));
+        MetadataCache.splitIds(StringUtil.unescapeTsv(f[15]), m.ids);
+        m.rating = f[16].isEmpty() ? null : Double.valueOf(f[16]);
+        return new Edit(Long.parseLong(f[2]), StringUtil.unescapeTsv(f[3]), Long.parseLong(f[4]), m);
+    }
+
+    private static BookMetadata copy(BookMetadata src) {
+        BookMetadata m = new BookMetadata();
+        m.title = src.title;
+        m.authors = new ArrayList<>(src.authors);
+        m.publisher = src.publisher;
+        m.date = src.date;
+        m.languages = new ArrayList<>(src.languages);
+        m.synopsis = src.synopsis;
+        m.series = src.series;
+        m.seriesIndex = src.seriesIndex;
+        m.issued = src.issued;
+        m.tags = new ArrayList<>(src.tags);
+        m.ids.putAll(src.ids);
+        m.rating = src.rating;
+        m.coverImage = src.coverImage;
+        return m;
+    }
+
+    private static String joinList(List<String> list) {
+        return list == null ? "" : String.join(String.valueOf(LIST_SEP), list);
+    }
+
+    private static List<String> splitList(String raw) {
+        return raw.isEmpty() ? new ArrayList<>() : new ArrayList<>(List.of(raw.split(String.valueOf(LIST_SEP))));
+    }
+
+    private static String nz(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static BasicFileAttributes stat(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
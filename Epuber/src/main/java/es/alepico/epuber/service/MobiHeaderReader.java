@@ -0,0 +1,211 @@
+package es.alepico.epuber.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lector de cabeceras MOBI/AZW/AZW3 (KF8). Lee la cabecera PalmDB, la tabla de registros,
+ * el registro 0 (PalmDOC + MOBI + EXTH) y, si se pide, el registro de la portada.
+ * Nunca toca los registros de texto, así que el coste no depende del tamaño del libro.
+ */
+public final class MobiHeaderReader implements AutoCloseable {
+
+    private static final int PDB_HEADER = 78;
+    private static final int EXTH_AUTHOR = 100;
+    private static final int EXTH_PUBLISHER = 101;
+    private static final int EXTH_DESCRIPTION = 103;
+    private static final int EXTH_ISBN = 104;
+    private static final int EXTH_ASIN = 113;
+    private static final int EXTH_COVER_OFFSET = 201;
+    private static final int EXTH_THUMB_OFFSET = 202;
+    private static final int EXTH_UPDATED_TITLE = 503;
+    private static final int EXTH_LANGUAGE = 524;
+    private static final int NO_INDEX = 0xFFFFFFFF;
+    /** Tope para registros de imagen: una portada nunca debería pasar de esto. */
+    private static final int MAX_RECORD = 16 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long[] recordOffsets;
+    private String title;
+    private final List<String> authors = new ArrayList<>();
+    private String publisher, description, isbn, asin, language;
+    private int firstImageRecord = -1;
+    private int coverRecord = -1, thumbRecord = -1;
+
+    private MobiHeaderReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.recordOffsets = readRecordTable();
+        readRecordZero();
+    }
+
+    /**
+     * Abre el fichero y analiza las cabeceras. Lanza IOException si no es un libro MOBI.
+     */
+    public static MobiHeaderReader open(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new MobiHeaderReader(ch);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    // ===== Acceso =====
+
+    /** Título de EXTH 503 o, si no hay, el "full name" de la cabecera MOBI. */
+    public String getTitle() { return title; }
+    public List<String> getAuthors() { return Collections.unmodifiableList(authors); }
+    public String getPublisher() { return publisher; }
+    public String getDescription() { return description; }
+    public String getIsbn() { return isbn; }
+    public String getAsin() { return asin; }
+    public String getLanguage() { return language; }
+    public boolean hasCover() { return coverRecord >= 0 || thumbRecord >= 0; }
+
+    /**
+     * Bytes de la imagen de portada (JPEG/PNG/GIF) leídos directamente de su registro,
+     * o de la miniatura si no hay portada. Null si el libro no declara ninguna.
+     */
+    public byte[] readCover() throws IOException {
+        byte[] img = coverRecord >= 0 ? readImageRecord(coverRecord) : null;
+        if (img == null && thumbRecord >= 0) img = readImageRecord(thumbRecord);
+        return img;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // ===== Análisis =====
+
+    private long[] readRecordTable() throws IOException {
+        ByteBuffer pdb = readAt(0, PDB_HEADER);
+        String type = new String(pdb.array(), 60, 8, StandardCharsets.US_ASCII);
+        // "BOOKMOBI" para MOBI/AZW/AZW3; "TEXtREAd" (PalmDOC) no tiene cabecera MOBI
+        if (!"BOOKMOBI".equals(type)) throw new IOException("No es un libro MOBI: " + type);
+        int count = Short.toUnsignedInt(pdb.getShort(76));
+        if (count == 0) throw new IOException("MOBI sin registros");
+
+        ByteBuffer table = readAt(PDB_HEADER, count * 8);
+        long[] offsets = new long[count + 1];
+        for (int i = 0; i < count; i++) offsets[i] = Integer.toUnsignedLong(table.getInt(i * 8));
+        offsets[count] = channel.size();
+        return offsets;
+    }
+
+    private void readRecordZero() throws IOException {
+        long start = recordOffsets[0];
+        int len = (int) Math.min(recordLength(0), MAX_RECORD);
+        ByteBuffer r0 = readAt(start, len);
+        if (len < 132 || r0.getInt(16) != 0x4D4F4249 /* "MOBI" */) throw new IOException("Cabecera MOBI no encontrada");
+
+        int mobiHeaderLen = r0.getInt(20);
+        Charset cs = r0.getInt(28) == 65001 ? StandardCharsets.UTF_8 : Charset.forName("windows-1252");
+        int nameOffset = r0.getInt(84), nameLen = r0.getInt(88);
+        if (nameOffset > 0 && nameLen > 0 && (long) nameOffset + nameLen <= len) {
+            title = clean(new String(r0.array(), nameOffset, nameLen, cs));
+        }
+        if (len >= 112) {
+            int first = r0.getInt(108);
+            if (first != NO_INDEX && first > 0 && first < recordOffsets.length - 1) firstImageRecord = first;
+        }
+
+        boolean hasExth = (r0.getInt(128) & 0x40) != 0;
+        int exth = 16 + mobiHeaderLen;
+        if (hasExth && exth + 12 <= len && r0.getInt(exth) == 0x45585448 /* "EXTH" */) {
+            readExth(r0, exth, len, cs);
+        }
+    }
+
+    private void readExth(ByteBuffer r0, int exth, int limit, Charset cs) {
+        int count = r0.getInt(exth + 8);
+        int pos = exth + 12;
+        int coverOffset = -1, thumbOffset = -1;
+        for (int i = 0; i < count && pos + 8 <= limit; i++) {
+            int type = r0.getInt(pos);
+            int size = r0.getInt(pos + 4);
+            if (size < 8 || pos + size > limit) break;
+            int dataLen = size - 8;
+            switch (type) {
+                case EXTH_AUTHOR -> {
+                    String a = clean(text(r0, pos + 8, dataLen, cs));
+                    if (a != null) authors.add(a);
+                }
+                case EXTH_PUBLISHER -> publisher = clean(text(r0, pos + 8, dataLen, cs));
+                case EXTH_DESCRIPTION -> description = clean(text(r0, pos + 8, dataLen, cs));
+                case EXTH_ISBN -> isbn = clean(text(r0, pos + 8, dataLen, cs));
+                case EXTH_ASIN -> asin = clean(text(r0, pos + 8, dataLen, cs));
+                case EXTH_LANGUAGE -> language = clean(text(r0, pos + 8, dataLen, cs));
+                case EXTH_UPDATED_TITLE -> {
+                    String t = clean(text(r0, pos + 8, dataLen, cs));
+                    if (t != null) title = t;
+                }
+                case EXTH_COVER_OFFSET -> { if (dataLen >= 4) coverOffset = r0.getInt(pos + 8); }
+                case EXTH_THUMB_OFFSET -> { if (dataLen >= 4) thumbOffset = r0.getInt(pos + 8); }
+                default -> { }
+            }
+            pos += size;
+        }
+        coverRecord = imageRecord(coverOffset);
+        thumbRecord = imageRecord(thumbOffset);
+    }
+
+    /**
+     * Los desplazamientos de EXTH 201/202 son relativos al primer registro de imagen.
+     */
+    private int imageRecord(int offset) {
+        if (offset < 0 || offset == NO_INDEX || firstImageRecord < 0) return -1;
+        long idx = (long) firstImageRecord + offset;
+        return idx < recordOffsets.length - 1 ? (int) idx : -1;
+    }
+
+    private byte[] readImageRecord(int index) throws IOException {
+        long len = recordLength(index);
+        if (len < 4 || len > MAX_RECORD) return null;
+        byte[] data = readAt(recordOffsets[index], (int) len).array();
+        return looksLikeImage(data) ? data : null;
+    }
+
+    private static boolean looksLikeImage(byte[] d) {
+        boolean jpeg = (d[0] & 0xFF) == 0xFF && (d[1] & 0xFF) == 0xD8;
+        boolean png = (d[0] & 0xFF) == 0x89 && d[1] == 'P' && d[2] == 'N' && d[3] == 'G';
+        boolean gif = d[0] == 'G' && d[1] == 'I' && d[2] == 'F';
+        return jpeg || png || gif;
+    }
+
+    private long recordLength(int index) throws IOException {
+        long len = recordOffsets[index + 1] - recordOffsets[index];
+        if (len < 0 || recordOffsets[index] > channel.size()) throw new IOException("Tabla de registros MOBI no válida");
+        return len;
+    }
+
+    private static String text(ByteBuffer b, int offset, int len, Charset cs) {
+        return new String(b.array(), offset, len, cs);
+    }
+
+    private static String clean(String s) {
+        if (s == null) return null;
+        s = s.replace("\u0000", "").trim();
+        return s.isEmpty() ? null : s;
+    }
+
+    private ByteBuffer readAt(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.BIG_ENDIAN);
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) throw new IOException("Fin de fichero inesperado");
+        }
+        return buf.flip();
+    }
+}
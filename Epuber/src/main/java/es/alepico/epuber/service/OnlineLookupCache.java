@@ -0,0 +1,164 @@
+package es.alepico.epuber.service;
+
+import es.alepico.epuber.model.BookMetadata;
+import es.alepico.epuber.util.AppDirs;
+import es.alepico.epuber.util.StringUtil;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caché persistente de respuestas de búsqueda en línea (OpenLibrary), indexada por la URL
+ * de la consulta. Guarda también los "no encontrado" con una caducidad más corta, para no
+ * repetir búsquedas sin resultado cada vez que se abre la aplicación.
+ */
+public class OnlineLookupCache {
+
+    private static final String HEADER = "# epuber-lookup-cache v1";
+    private static final char LIST_SEP = '\u001F';
+    public static final Duration DEFAULT_TTL = Duration.ofDays(30);
+    public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofDays(1);
+
+    private static final OnlineLookupCache SHARED =
+            new OnlineLookupCache(AppDirs.resolve("lookup-cache.tsv"), DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+
+    /**
+     * Resultado de {@link #get}: si hay respuesta vigente en caché y, en ese caso, cuál
+     * ({@code Optional.empty()} si se sabe que la búsqueda no tiene resultado).
+     */
+    public record Lookup(boolean cached, Optional<BookMetadata> result) {
+        private static final Lookup MISS = new Lookup(false, Optional.empty());
+    }
+
+    /** {@code meta == null} indica una búsqueda sin resultado. */
+    private record Entry(long fetchedAt, BookMetadata meta) { }
+
+    private final Path storeFile;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+    private volatile boolean dirty;
+
+    public OnlineLookupCache(Path storeFile, Duration ttl, Duration negativeTtl) {
+        this.storeFile = storeFile;
+        this.ttlMillis = ttl.toMillis();
+        this.negativeTtlMillis = negativeTtl.toMillis();
+    }
+
+    public static OnlineLookupCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Respuesta en caché aún vigente, incluidos los "no encontrado"; si no la hay (o ha
+     * caducado), {@code cached()} es false y hay que consultar.
+     */
+    public Lookup get(String key) {
+        ensureLoaded();
+        Entry e = entries.get(key);
+        if (e == null) return Lookup.MISS;
+        long age = System.currentTimeMillis() - e.fetchedAt();
+        if (age > (e.meta() != null ? ttlMillis : negativeTtlMillis)) {
+            entries.remove(key, e);
+            dirty = true;
+            return Lookup.MISS;
+        }
+        return new Lookup(true, Optional.ofNullable(e.meta()));
+    }
+
+    public void put(String key, Optional<BookMetadata> result) {
+        ensureLoaded();
+        entries.put(key, new Entry(System.currentTimeMillis(), result.orElse(null)));
+        dirty = true;
+    }
+
+    /**
+     * Guarda en disco si hay cambios pendientes (temporal + renombrado atómico). Si falla,
+     * los cambios siguen pendientes.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) return;
+        dirty = false;
+        try {
+            writeStore();
+        } catch (IOException | RuntimeException e) {
+            dirty = true;
+            throw e;
+        }
+    }
+
+    private void writeStore() throws IOException {
+        Files.createDirectories(storeFile.getParent());
+        Path tmp = storeFile.resolveSibling(storeFile.getFileName() + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write(HEADER);
+            w.newLine();
+            for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                BookMetadata m = me.getValue().meta();
+                w.write(String.join("\t",
+                        StringUtil.escapeTsv(me.getKey()),
+                        Long.toString(me.getValue().fetchedAt()),
+                        m == null ? "0" : "1",
+                        StringUtil.escapeTsv(m == null ? "" : m.title),
+                        StringUtil.escapeTsv(m == null ? "" : String.join(String.valueOf(LIST_SEP), m.authors)),
+                        StringUtil.escapeTsv(m == null ? "" : m.synopsis),
+                        m == null || m.date == null ? "" : m.date.toString(),
+                        StringUtil.escapeTsv(m == null ? "" : MetadataCache.joinIds(m.ids))));
+                w.newLine();
+            }
+        }
+        Files.move(tmp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Carga el fichero la primera vez; {@code loaded} se publica al terminar.
+     */
+    private void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            try {
+                load();
+            } finally {
+                loaded = true;
+            }
+        }
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(storeFile)) return;
+        try (BufferedReader r = Files.newBufferedReader(storeFile, StandardCharsets.UTF_8)) {
+            String line = r.readLine();
+            if (!HEADER.equals(line)) return;
+            while ((line = r.readLine()) != null) {
+                String[] f = line.split("\t", -1);
+                if (f.length < 6) continue;
+                BookMetadata m = null;
+                if ("1".equals(f[2])) {
+                    m = new BookMetadata();
+                    m.title = StringUtil.unescapeTsv(f[3]);
+                    String authors = StringUtil.unescapeTsv(f[4]);
+                    if (!authors.isEmpty()) m.authors.addAll(List.of(authors.split(String.valueOf(LIST_SEP))));
+                    m.synopsis = StringUtil.blankToNull(StringUtil.unescapeTsv(f[5]));
+                    if (f.length > 6 && !f[6].isEmpty()) m.date = LocalDate.parse(f[6]);
+                    if (f.length > 7) MetadataCache.splitIds(StringUtil.unescapeTsv(f[7]), m.ids);
+                }
+                entries.put(StringUtil.unescapeTsv(f[0]), new Entry(Long.parseLong(f[1]), m));
+            }
+        } catch (IOException | RuntimeException ignored) {
+            // Caché corrupta: se vuelve a consultar lo que falte
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package es.alepico.epuber.service;
+
+import es.alepico.epuber.model.BookMetadata;
+import es.alepico.epuber.util.AppDirs;
+import es.alepico.epuber.util.Isbn;
+import es.alepico.epuber.util.JsonReader;
+import es.alepico.epuber.util.StringUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Índice local de un volcado de OpenLibrary para buscar metadatos sin red.
+ *
+ * El fichero tiene una cabecera, una tabla hash de direccionamiento abierto (hash de 64 bits
+ * + desplazamiento del registro, 16 bytes por hueco) y los registros. La tabla se proyecta en
+ * memoria con mmap, así que una consulta son unas pocas lecturas de página: microsegundos
+ * con el índice en la caché del sistema, sin cargarlo en el heap.
+ *
+ * Java no deja liberar una proyección a voluntad y Windows no deja sustituir ni borrar un
+ * fichero proyectado, así que cada importación escribe un índice nuevo
+ * ({@code openlibrary-<marca de tiempo>.idx}) en lugar de renombrar sobre el que está en uso; se
+ * abre siempre el más reciente y los viejos se borran cuando ya nadie los tiene abiertos.
+ *
+ * Claves: ISBN-13, título normalizado y título + autor normalizados.
+ */
+public final class OpenLibraryIndex implements AutoCloseable {
+
+    private static final long MAGIC = 0x4550_4F4C_4958_0001L; // "EPOLIX" v1
+    private static final String PREFIX = "openlibrary-";
+    private static final String SUFFIX = ".idx";
+    private static final int HEADER = 32;
+    private static final int SLOT = 16;
+    private static final long SEGMENT = 1L << 30;
+    private static final char LIST_SEP = '\u001F';
+    private static final Pattern YEAR = Pattern.compile("\\b(1[5-9]\\d\\d|20\\d\\d)\\b");
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] table;
+    private final long mask;
+    private final long dataStart;
+
+    /**
+     * Progreso de la importación: líneas leídas y registros indexados hasta ahora.
+     */
+    public interface ImportListener {
+        void onProgress(long lines, long records);
+    }
+
+    public record ImportStats(long lines, long records, long keys, long elapsedMillis) {
+        public String describe() {
+            return String.format(Locale.ROOT, "%d libros indexados de %d líneas en %.1f s (%d claves)",
+                    records, lines, elapsedMillis / 1000.0, keys);
+        }
+    }
+
+    private OpenLibraryIndex(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer h = ByteBuffer.allocate(HEADER);
+        channel.read(h, 0);
+        h.flip();
+        if (h.remaining() < HEADER || h.getLong(0) != MAGIC) throw new IOException("No es un índice de OpenLibrary");
+        long slots = h.getLong(8);
+        this.mask = slots - 1;
+        this.dataStart = HEADER + slots * SLOT;
+        this.table = map(channel, FileChannel.MapMode.READ_ONLY, slots);
+    }
+
+    public static OpenLibraryIndex open(Path index) throws IOException {
+        FileChannel ch = FileChannel.open(index, StandardOpenOption.READ);
+        try {
+            return new OpenLibraryIndex(ch);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Índice más reciente del directorio de datos de la aplicación, o null si no se ha importado
+     * ninguno. Se saltan los que están a medio construir; los anteriores al abierto se borran.
+     */
+    public static OpenLibraryIndex openDefault() {
+        List<Path> found = defaultIndexes();
+        for (int i = 0; i < found.size(); i++) {
+            try {
+                OpenLibraryIndex idx = open(found.get(i));
+                for (Path old : found.subList(i + 1, found.size())) deleteQuietly(old);
+                return idx;
+            } catch (IOException e) {
+                // Importación en curso o interrumpida: se prueba el anterior
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fichero para un índice nuevo en el directorio de datos (ver {@link #build}).
+     */
+    public static Path newDefaultLocation() {
+        return AppDirs.resolve(PREFIX + System.currentTimeMillis() + SUFFIX);
+    }
+
+    /**
+     * Borra los índices del directorio de datos salvo {@code keep}. Los que sigan proyectados
+     * por otra instancia no se pueden borrar en Windows: se quedan hasta la próxima vez.
+     */
+    public static void pruneDefault(Path keep) {
+        for (Path p : defaultIndexes()) {
+            if (!p.equals(keep)) deleteQuietly(p);
+        }
+    }
+
+    /** Índices del directorio de datos, del más reciente al más antiguo. */
+    private static List<Path> defaultIndexes() {
+        List<Path> out = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(AppDirs.dataDir(), PREFIX + "*" + SUFFIX)) {
+            for (Path p : ds) {
+                if (generation(p) >= 0) out.add(p);
+            }
+        } catch (IOException ignored) {
+            // Sin directorio de datos no hay índices
+        }
+        out.sort(Comparator.comparingLong(OpenLibraryIndex::generation).reversed());
+        return out;
+    }
+
+    private static long generation(Path p) {
+        String name = p.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException ignored) {
+            // Aún proyectado (Windows): se reintenta en la próxima importación o arranque
+        }
+    }
+
+    // ===== Consultas =====
+
+    public Optional<BookMetadata> findByIsbn(String isbn) throws IOException {
+        String isbn13 = Isbn.toIsbn13(isbn);
+        if (isbn13 == null) return Optional.empty();
+        BookMetadata m = lookup("i:" + isbn13);
+        return Optional.ofNullable(m != null && isbn13.equals(m.ids.get("isbn")) ? m : null);
+    }
+
+    /**
+     * Busca por título y autor; si no hay autor o no aparece con él, sólo por título.
+     */
+    public Optional<BookMetadata> findByTitle(String title, String author) throws IOException {
+        String t = StringUtil.normalizeForComparison(title);
+        if (t.isEmpty()) return Optional.empty();
+        String a = StringUtil.normalizeForComparison(author);
+        if (!a.isEmpty()) {
+            BookMetadata m = lookup("ta:" + t + "|" + a);
+            if (m != null && t.equals(StringUtil.normalizeForComparison(m.title))) return Optional.of(m);
+        }
+        BookMetadata m = lookup("t:" + t);
+        return Optional.ofNullable(m != null && t.equals(StringUtil.normalizeForComparison(m.title)) ? m : null);
+    }
+
+    private BookMetadata lookup(String key) throws IOException {
+        long h = hash(key);
+        for (long slot = h & mask, probes = 0; probes <= mask; slot = (slot + 1) & mask, probes++) {
+            long stored = getLong(table, slot * SLOT);
+            if (stored == 0) return null;
+            if (stored == h) return readRecord(getLong(table, slot * SLOT + 8));
+        }
+        return null;
+    }
+
+    private BookMetadata readRecord(long offset) throws IOException {
+        ByteBuffer len = ByteBuffer.allocate(4);
+        channel.read(len, dataStart + offset);
+        ByteBuffer body = ByteBuffer.allocate(len.flip().getInt());
+        while (body.hasRemaining()) {
+            if (channel.read(body, dataStart + offset + 4 + body.position()) < 0) throw new IOException("Registro truncado");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body.array()));
+        BookMetadata m = new BookMetadata();
+        m.title = in.readUTF();
+        String authors = in.readUTF();
+        if (!authors.isEmpty()) m.authors.addAll(List.of(authors.split(String.valueOf(LIST_SEP))));
+        m.publisher = StringUtil.blankToNull(in.readUTF());
+        int year = in.readShort();
+        if (year > 0) m.date = LocalDate.of(year, 1, 1);
+        String isbn = in.readUTF();
+        if (!isbn.isEmpty()) m.ids.put("isbn", isbn);
+        String olid = in.readUTF();
+        if (!olid.isEmpty()) m.ids.put("openlibrary", olid);
+        return m;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // ===== Importación =====
+
+    /**
+     * Importa un volcado de OpenLibrary (ediciones u obras) comprimido con gzip o sin comprimir.
+     * Acepta el formato oficial (tipo, clave, revisión, fecha y JSON separados por tabuladores)
+     * y JSON Lines. Lee en streaming con memoria constante: los registros y las claves se
+     * escriben a temporales y la tabla se construye al final sobre el fichero proyectado.
+     *
+     * {@code index} tiene que ser un fichero nuevo ({@link #newDefaultLocation()}): se escribe
+     * en su sitio y la cabecera se marca como válida al final, así que un índice a medio
+     * construir nunca se abre y no hace falta renombrar nada que siga proyectado.
+     */
+    public static ImportStats build(Path dump, Path index, ImportListener listener) throws IOException {
+        long start = System.nanoTime();
+        Path data = index.resolveSibling(index.getFileName() + ".data.tmp");
+        Path keys = index.resolveSibling(index.getFileName() + ".keys.tmp");
+        long lines = 0, records = 0, keyCount = 0;
+        boolean ok = false;
+        try {
+            try (BufferedReader r = openDump(dump);
+                 DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(data), 1 << 16));
+                 DataOutputStream keyOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(keys), 1 << 16))) {
+                long offset = 0;
+                String line;
+                while ((line = r.readLine()) != null) {
+                    lines++;
+                    Edition e;
+                    try {
+                        e = parseLine(line);
+                    } catch (IOException | RuntimeException bad) {
+                        continue; // Línea corrupta del volcado: se omite
+                    }
+                    if (e != null && e.title != null) {
+                        byte[] rec = e.encode();
+                        dataOut.writeInt(rec.length);
+                        dataOut.write(rec);
+                        for (String k : e.keys()) {
+                            keyOut.writeLong(hash(k));
+                            keyOut.writeLong(offset);
+                            keyCount++;
+                        }
+                        offset += 4 + rec.length;
+                        records++;
+                    }
+                    if (listener != null && (lines & 0xFFFF) == 0) listener.onProgress(lines, records);
+                }
+            }
+            writeIndex(index, data, keys, keyCount);
+            ok = true;
+        } finally {
+            Files.deleteIfExists(data);
+            Files.deleteIfExists(keys);
+            if (!ok) deleteQuietly(index);
+        }
+        if (listener != null) listener.onProgress(lines, records);
+        return new ImportStats(lines, records, keyCount, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static BufferedReader openDump(Path dump) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(dump), 1 << 16);
+        in.mark(2);
+        boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+        in.reset();
+        if (gzip) in = new GZIPInputStream(in, 1 << 16);
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static void writeIndex(Path out, Path data, Path keys, long keyCount) throws IOException {
+        long slots = Long.highestOneBit(Math.max(16, keyCount * 2 - 1)) << 1; // ocupación <= 50 %
+        long mask = slots - 1;
+        try (FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer h = ByteBuffer.allocate(HEADER);
+            h.putLong(0).putLong(slots).flip(); // Sin firma hasta terminar: open() lo rechaza
+            ch.write(h, 0);
+            MappedByteBuffer[] table = map(ch, FileChannel.MapMode.READ_WRITE, slots);
+
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(keys), 1 << 16))) {
+                for (long i = 0; i < keyCount; i++) {
+                    long hv = in.readLong(), offset = in.readLong();
+                    long slot = hv & mask;
+                    while (true) {
+                        long stored = getLong(table, slot * SLOT);
+                        if (stored == 0) {
+                            putLong(table, slot * SLOT, hv);
+                            putLong(table, slot * SLOT + 8, offset);
+                            break;
+                        }
+                        if (stored == hv) break; // Clave repetida (otra edición): gana la primera
+                        slot = (slot + 1) & mask;
+                    }
+                }
+            }
+            for (MappedByteBuffer b : table) b.force();
+            try (FileChannel src = FileChannel.open(data, StandardOpenOption.READ)) {
+                long pos = 0, size = src.size(), dst = HEADER + slots * SLOT;
+                while (pos < size) pos += src.transferTo(pos, size - pos, ch.position(dst + pos));
+            }
+            ch.force(true);
+            ch.write(ByteBuffer.allocate(8).putLong(0, MAGIC), 0);
+            ch.force(true);
+        }
+    }
+
+    /**
+     * Lo que se guarda de cada edición u obra.
+     */
+    private static final class Edition {
+        String title, publisher, isbn13, olid;
+        final List<String> authors = new ArrayList<>(2);
+        int year;
+
+        List<String> keys() {
+            List<String> k = new ArrayList<>(3);
+            if (isbn13 != null) k.add("i:" + isbn13);
+            String t = StringUtil.normalizeForComparison(title);
+            if (!t.isEmpty()) {
+                k.add("t:" + t);
+                for (String a : authors) {
+                    String na = StringUtil.normalizeForComparison(a);
+                    if (!na.isEmpty()) k.add("ta:" + t + "|" + na);
+                }
+            }
+            return k;
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeUTF(truncate(title));
+            out.writeUTF(truncate(String.join(String.valueOf(LIST_SEP), authors)));
+            out.writeUTF(truncate(publisher == null ? "" : publisher));
+            out.writeShort(year);
+            out.writeUTF(isbn13 == null ? "" : isbn13);
+            out.writeUTF(olid == null ? "" : olid);
+            return bos.toByteArray();
+        }
+
+        private static String truncate(String s) {
+            return s.length() > 4000 ? s.substring(0, 4000) : s;
+        }
+    }
+
+    /**
+     * Extrae los campos útiles de una línea del volcado; null si no es una edición u obra.
+     */
+    private static Edition parseLine(String line) throws IOException {
+        int json = line.indexOf('{');
+        if (json < 0) return null;
+        // Formato oficial: el tipo va en la primera columna
+        if (json > 0 && !line.startsWith("/type/edition") && !line.startsWith("/type/work")) return null;
+
+        Edition e = new Edition();
+        JsonReader r = new JsonReader(json == 0 ? line : line.substring(json));
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "title" -> e.title = StringUtil.blankToNull(stringOrNull(r));
+                case "key" -> {
+                    String k = stringOrNull(r);
+                    if (k != null) e.olid = k.substring(k.lastIndexOf('/') + 1);
+                }
+                case "isbn_13", "isbn_10", "isbn" -> {
+                    for (String s : strings(r)) {
+                        if (e.isbn13 == null) e.isbn13 = Isbn.toIsbn13(s);
+                    }
+                }
+                case "author_name" -> e.authors.addAll(strings(r));
+                case "authors" -> readAuthors(r, e.authors);
+                case "by_statement" -> {
+                    String by = StringUtil.blankToNull(stringOrNull(r));
+                    if (by != null && e.authors.isEmpty()) e.authors.add(by.replaceFirst("(?i)^by\\s+", "").replaceFirst("\\.$", ""));
+                }
+                case "publishers", "publisher" -> {
+                    List<String> p = strings(r);
+                    if (!p.isEmpty()) e.publisher = p.get(0);
+                }
+                case "publish_date", "first_publish_date", "first_publish_year" -> {
+                    String d = stringOrNull(r);
+                    Matcher m = d == null ? null : YEAR.matcher(d);
+                    if (m != null && m.find() && e.year == 0) e.year = Integer.parseInt(m.group(1));
+                }
+                default -> r.skipValue();
+            }
+        }
+        return e;
+    }
+
+    /**
+     * "authors" puede traer nombres ({"name": ...}) o sólo referencias a /authors/...; de
+     * estas últimas no se puede sacar el nombre sin el volcado de autores, así que se ignoran.
+     */
+    private static void readAuthors(JsonReader r, List<String> out) throws IOException {
+        if (r.peek() != JsonReader.Token.BEGIN_ARRAY) {
+            r.skipValue();
+            return;
+        }
+        r.beginArray();
+        while (r.hasNext()) {
+            if (r.peek() == JsonReader.Token.STRING) {
+                String s = StringUtil.blankToNull(r.nextString());
+                if (s != null) out.add(s);
+            } else if (r.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                r.beginObject();
+                while (r.hasNext()) {
+                    if ("name".equals(r.nextName())) {
+                        String s = StringUtil.blankToNull(stringOrNull(r));
+                        if (s != null) out.add(s);
+                    } else {
+                        r.skipValue();
+                    }
+                }
+                r.endObject();
+            } else {
+                r.skipValue();
+            }
+        }
+        r.endArray();
+    }
+
+    /**
+     * Cadena o número como texto; null para cualquier otro valor (que se salta).
+     */
+    private static String stringOrNull(JsonReader r) throws IOException {
+        JsonReader.Token t = r.peek();
+        if (t == JsonReader.Token.STRING || t == JsonReader.Token.NUMBER) return r.nextString();
+        r.skipValue();
+        return null;
+    }
+
+    /**
+     * Array de cadenas (o una cadena suelta) como lista.
+     */
+    private static List<String> strings(JsonReader r) throws IOException {
+        List<String> out = new ArrayList<>(2);
+        if (r.peek() == JsonReader.Token.BEGIN_ARRAY) {
+            r.beginArray();
+            while (r.hasNext()) {
+                String s = stringOrNull(r);
+                if (s != null && !s.isBlank()) out.add(s.trim());
+            }
+            r.endArray();
+        } else {
+            String s = stringOrNull(r);
+            if (s != null && !s.isBlank()) out.add(s.trim());
+        }
+        return out;
+    }
+
+    // ===== Tabla proyectada =====
+
+    private static MappedByteBuffer[] map(FileChannel ch, FileChannel.MapMode mode, long slots) throws IOException {
+        long bytes = slots * SLOT;
+        int n = (int) ((bytes + SEGMENT - 1) / SEGMENT);
+        MappedByteBuffer[] segs = new MappedByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long off = i * SEGMENT;
+            segs[i] = ch.map(mode, HEADER + off, Math.min(SEGMENT, bytes - off));
+        }
+        return segs;
+    }
+
+    private static long getLong(MappedByteBuffer[] segs, long pos) {
+        return segs[(int) (pos / SEGMENT)].getLong((int) (pos % SEGMENT));
+    }
+
+    private static void putLong(MappedByteBuffer[] segs, long pos, long v) {
+        segs[(int) (pos / SEGMENT)].putLong((int) (pos % SEGMENT), v);
+    }
+
+    /**
+     * FNV-1a de 64 bits con mezcla final; el 0 se reserva para huecos vacíos.
+     */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        byte[] b = key.getBytes(StandardCharsets.UTF_8);
+        for (byte x : b) {
+            h ^= x & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}
@@ -0,0 +1,225 @@
+package es.alepico.epuber.service;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Sonda StAX de los metadatos de un OPF. Lee sólo el bloque {@code <metadata>} y se detiene
+ * en {@code </metadata>}, sin construir un DOM ni recorrer el manifiesto y el spine enteros.
+ * Para portada e inventario completo del paquete está {@link EpubPackage}.
+ */
+public class OpfMetadataProbe {
+
+    private static final String OPF_NS = "http://www.idpf.org/2007/opf";
+    private static final XMLInputFactory FACTORY = newSecureFactory();
+
+    /**
+     * Resultado de la sonda. {@code coverHref} sólo se rellena con {@link #probeWithCover}.
+     */
+    public record Result(String title, List<String> creators, Map<String, String> identifiers,
+                         String coverId, String coverHref) { }
+
+    private OpfMetadataProbe() {
+        // Evitar instanciación
+    }
+
+    /**
+     * Lee título, creadores, identificadores e id de portada y se detiene en {@code </metadata>}.
+     */
+    public static Result probe(InputStream opf) throws IOException {
+        return read(opf, false);
+    }
+
+    /**
+     * Como {@link #probe}, pero si hay portada sigue por el manifiesto sólo hasta encontrar
+     * su {@code <item>} (por id o por properties="cover-image") para devolver el href.
+     */
+    public static Result probeWithCover(InputStream opf) throws IOException {
+        return read(opf, true);
+    }
+
+    /**
+     * Sonda completa de un EPUB sin {@code ZipFile}: lee el directorio central desde el final
+     * del fichero, descomprime {@code META-INF/container.xml} y el principio del OPF, y nada más.
+     * Devuelve null si el fichero no parece un EPUB.
+     */
+    public static Result probeEpub(Path epub) throws IOException {
+        try (ZipTailReader zip = ZipTailReader.open(epub)) {
+            ZipTailReader.Entry opf = findOpf(zip);
+            if (opf == null) return null;
+            try (InputStream is = zip.openEntry(opf)) {
+                return probeWithCover(is);
+            }
+        }
+    }
+
+    /**
+     * Entrada del OPF según {@code container.xml}, o el primer {@code .opf} si no lo indica.
+     */
+    static ZipTailReader.Entry findOpf(ZipTailReader zip) throws IOException {
+        String opfPath = null;
+        ZipTailReader.Entry container = zip.find("META-INF/container.xml");
+        if (container != null) {
+            try (InputStream is = zip.openEntry(container)) {
+                opfPath = rootfilePath(is);
+            }
+        }
+        ZipTailReader.Entry opf = opfPath != null ? zip.find(opfPath) : null;
+        if (opf == null) opf = zip.findFirst(n -> n.toLowerCase(Locale.ROOT).endsWith(".opf"));
+        return opf;
+    }
+
+    /**
+     * Atributo full-path del primer rootfile de container.xml.
+     */
+    private static String rootfilePath(InputStream container) throws IOException {
+        XMLStreamReader r = null;
+        try {
+            r = FACTORY.createXMLStreamReader(container);
+            while (r.hasNext()) {
+                if (r.next() == XMLStreamConstants.START_ELEMENT && "rootfile".equals(r.getLocalName())) {
+                    String full = attr(r, "full-path");
+                    if (full != null && !full.isEmpty()) return full;
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IOException("container.xml no válido: " + e.getMessage(), e);
+        } finally {
+            if (r != null) {
+                try { r.close(); } catch (XMLStreamException ignored) { }
+            }
+        }
+    }
+
+    private static Result read(InputStream opf, boolean resolveCover) throws IOException {
+        String title = null, coverId = null, coverHref = null, guess = null;
+        List<String> creators = new ArrayList<>(2);
+        Map<String, String> ids = new LinkedHashMap<>(4);
+
+        XMLStreamReader r = null;
+        try {
+            r = FACTORY.createXMLStreamReader(opf);
+            boolean inMetadata = false, inManifest = false;
+            while (r.hasNext()) {
+                int ev = r.next();
+                if (ev == XMLStreamConstants.START_ELEMENT) {
+                    String name = r.getLocalName();
+                    if (inMetadata) {
+                        switch (name) {
+                            case "title" -> {
+                                String t = text(r);
+                                if (title == null && !t.isEmpty()) title = t;
+                            }
+                            case "creator" -> {
+                                String t = text(r);
+                                if (!t.isEmpty()) creators.add(t);
+                            }
+                            case "identifier" -> {
+                                String scheme = attr(r, "scheme");
+                                String t = text(r);
+                                if (!t.isEmpty()) {
+                                    // Sin opf:scheme (EPUB 3) suele haber varios: "id", "id2"...
+                                    String base = scheme == null ? "id" : scheme.toLowerCase(Locale.ROOT), key = base;
+                                    for (int n = 2; ids.containsKey(key); n++) key = base + n;
+                                    ids.put(key, t);
+                                }
+                            }
+                            case "meta" -> {
+                                if ("cover".equalsIgnoreCase(attr(r, "name")) && attr(r, "content") != null) coverId = attr(r, "content");
+                            }
+                            default -> { }
+                        }
+                    } else if (inManifest && "item".equals(name)) {
+                        String href = attr(r, "href");
+                        if (href == null) continue;
+                        String props = attr(r, "properties");
+                        if (coverId != null && coverId.equals(attr(r, "id"))) { coverHref = href; break; }
+                        if (props != null && props.toLowerCase(Locale.ROOT).contains("cover-image")) { coverHref = href; break; }
+                        String mt = attr(r, "media-type");
+                        if (guess == null && mt != null && mt.startsWith("image/") && href.toLowerCase(Locale.ROOT).contains("cover")) guess = href;
+                    } else if ("metadata".equals(name)) {
+                        inMetadata = true;
+                    } else if ("manifest".equals(name)) {
+                        inManifest = true;
+                    }
+                } else if (ev == XMLStreamConstants.END_ELEMENT) {
+                    String name = r.getLocalName();
+                    if ("metadata".equals(name)) {
+                        inMetadata = false;
+                        if (!resolveCover) break;
+                    } else if ("manifest".equals(name)) {
+                        break;
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            // OPF mal formado: devolvemos lo que se haya podido leer hasta el error
+            if (title == null && creators.isEmpty()) throw new IOException("OPF no válido: " + e.getMessage(), e);
+        } finally {
+            if (r != null) {
+                try { r.close(); } catch (XMLStreamException ignored) { }
+            }
+        }
+        if (coverHref == null) coverHref = guess;
+        return new Result(title, creators, ids, coverId, resolveCover ? coverHref : null);
+    }
+
+    /**
+     * Texto de un elemento simple (deja el lector en su END_ELEMENT).
+     */
+    private static String text(XMLStreamReader r) throws XMLStreamException {
+        StringBuilder sb = null;
+        String single = null;
+        int depth = 1;
+        while (depth > 0 && r.hasNext()) {
+            int ev = r.next();
+            switch (ev) {
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+                    String t = r.getText();
+                    if (single == null) single = t;
+                    else {
+                        if (sb == null) sb = new StringBuilder(single);
+                        sb.append(t);
+                    }
+                }
+                case XMLStreamConstants.START_ELEMENT -> depth++;
+                case XMLStreamConstants.END_ELEMENT -> depth--;
+                default -> { }
+            }
+        }
+        String s = sb != null ? sb.toString() : single;
+        return s == null ? "" : s.trim();
+    }
+
+    /**
+     * Atributo por nombre local: acepta "opf:scheme", "scheme" o el espacio de nombres OPF.
+     */
+    private static String attr(XMLStreamReader r, String localName) {
+        for (int i = 0; i < r.getAttributeCount(); i++) {
+            if (localName.equals(r.getAttributeLocalName(i))) {
+                String ns = r.getAttributeNamespace(i);
+                if (ns == null || ns.isEmpty() || OPF_NS.equals(ns)) return r.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    private static XMLInputFactory newSecureFactory() {
+        XMLInputFactory f = XMLInputFactory.newFactory();
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        f.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return f;
+    }
+}
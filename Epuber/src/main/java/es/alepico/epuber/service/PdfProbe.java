@@ -0,0 +1,198 @@
+package es.alepico.epuber.service;
+
+import es.alepico.epuber.util.Identifiers;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDMetadata;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Sonda de bajo consumo para PDF: trailer, diccionario Info, XMP, número de páginas y tamaño
+ * de la primera página. El fichero se lee por acceso aleatorio (no se copia al heap) y los
+ * objetos se resuelven bajo demanda, así que nunca se decodifican flujos de contenido.
+ * El búfer de trabajo de PDFBox se limita con {@link MemoryUsageSetting} y se desborda a
+ * ficheros temporales; si un PDF supera también ese límite la sonda falla en vez de crecer.
+ */
+public class PdfProbe {
+
+    /** Memoria de trabajo máxima por documento; el resto va a temporales. */
+    public static final long MAX_MAIN_MEMORY = 4L * 1024 * 1024;
+    /** Tope total (memoria + temporales) por documento. */
+    public static final long MAX_STORAGE = 64L * 1024 * 1024;
+
+    private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+    private static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+    private static final XMLInputFactory FACTORY = newSecureFactory();
+    /** Elementos o atributos XMP con identificadores (dc, xmp, prism, pdfx) y su esquema. */
+    private static final Map<String, String> XMP_ID_NAMES = Map.of(
+            "identifier", "", "Identifier", "", "isbn", "isbn", "ISBN", "isbn", "eIsbn", "isbn",
+            "doi", "doi", "DOI", "doi");
+    /** Claves propias del diccionario Info donde algunos editores guardan el ISBN o el DOI. */
+    private static final List<String> INFO_ID_KEYS = List.of("ISBN", "isbn", "EBX_ISBN", "DOI", "doi");
+
+    /**
+     * Resultado de la sonda. Las medidas están en puntos (1/72") y ya tienen en cuenta /Rotate;
+     * valen 0 si el documento no tiene páginas.
+     */
+    public record Result(String title, List<String> authors, Map<String, String> identifiers, int pageCount,
+                         float firstPageWidth, float firstPageHeight) { }
+
+    private PdfProbe() {
+        // Evitar instanciación
+    }
+
+    /**
+     * Abre un PDF con el búfer limitado. Para quien necesite el documento (p. ej. miniaturas)
+     * en lugar de {@code PDDocument.load(file)}, que no pone tope a la memoria de trabajo.
+     */
+    public static PDDocument open(Path pdf) throws IOException {
+        return PDDocument.load(pdf.toFile(), MemoryUsageSetting.setupMixed(MAX_MAIN_MEMORY, MAX_STORAGE));
+    }
+
+    public static Result probe(Path pdf) throws IOException {
+        try (PDDocument doc = open(pdf)) {
+            PDDocumentInformation info = doc.getDocumentInformation();
+            String title = clean(info.getTitle());
+            List<String> authors = new ArrayList<>(1);
+            String author = clean(info.getAuthor());
+            if (author != null) authors.add(author);
+
+            Map<String, String> ids = new LinkedHashMap<>(2);
+            for (String key : INFO_ID_KEYS) {
+                String v = clean(info.getCustomMetadataValue(key));
+                if (v != null) addIdentifier(ids, key.toLowerCase(Locale.ROOT).replace("ebx_", ""), v);
+            }
+
+            // El XMP se lee siempre que exista: es donde suelen ir los identificadores, y
+            // completa título y autores si el diccionario Info no los trae (PDF/A recientes)
+            PDMetadata xmp = doc.getDocumentCatalog().getMetadata();
+            if (xmp != null) {
+                List<String> xmpTitle = new ArrayList<>(1), xmpCreators = new ArrayList<>(1);
+                try (InputStream is = xmp.exportXMPMetadata()) {
+                    readXmp(is, xmpTitle, xmpCreators, ids);
+                } catch (IOException ignored) {
+                    // XMP ilegible: nos quedamos con lo que hubiera en Info
+                }
+                if (title == null && !xmpTitle.isEmpty()) title = xmpTitle.get(0);
+                if (authors.isEmpty()) authors.addAll(xmpCreators);
+            }
+
+            int pages = doc.getNumberOfPages();
+            float w = 0, h = 0;
+            if (pages > 0) {
+                PDPage first = doc.getPage(0);
+                PDRectangle box = first.getCropBox();
+                boolean rotated = first.getRotation() % 180 != 0;
+                w = rotated ? box.getHeight() : box.getWidth();
+                h = rotated ? box.getWidth() : box.getHeight();
+            }
+            return new Result(title, authors, ids, pages, w, h);
+        }
+    }
+
+    /**
+     * dc:title (primer rdf:li del rdf:Alt), dc:creator (todos los rdf:li del rdf:Seq) e
+     * identificadores, ya sean elementos (dc:identifier, xmp:Identifier, prism:isbn...) con texto
+     * o con rdf:Bag, o atributos abreviados de rdf:Description.
+     */
+    private static void readXmp(InputStream is, List<String> titles, List<String> creators,
+                                Map<String, String> ids) throws IOException {
+        XMLStreamReader r = null;
+        try {
+            r = FACTORY.createXMLStreamReader(is);
+            List<String> target = null;
+            String idScheme = null;
+            StringBuilder idText = new StringBuilder();
+            while (r.hasNext()) {
+                int ev = r.next();
+                if (ev == XMLStreamConstants.START_ELEMENT) {
+                    String ns = r.getNamespaceURI(), name = r.getLocalName();
+                    if (DC_NS.equals(ns) && "title".equals(name)) target = titles;
+                    else if (DC_NS.equals(ns) && "creator".equals(name)) target = creators;
+                    else if (XMP_ID_NAMES.containsKey(name)) {
+                        idScheme = XMP_ID_NAMES.get(name);
+                        idText.setLength(0);
+                    } else if (RDF_NS.equals(ns) && "li".equals(name)) {
+                        String t = clean(leafText(r));
+                        if (t != null && target != null) target.add(t);
+                        else if (t != null && idScheme != null) addIdentifier(ids, idScheme, t);
+                    } else if (RDF_NS.equals(ns) && "Description".equals(name)) {
+                        for (int i = 0; i < r.getAttributeCount(); i++) {
+                            String scheme = XMP_ID_NAMES.get(r.getAttributeLocalName(i));
+                            if (scheme != null) addIdentifier(ids, scheme, r.getAttributeValue(i));
+                        }
+                    }
+                } else if (ev == XMLStreamConstants.CHARACTERS && idScheme != null) {
+                    idText.append(r.getText());
+                } else if (ev == XMLStreamConstants.END_ELEMENT) {
+                    if (idScheme != null && XMP_ID_NAMES.containsKey(r.getLocalName())) {
+                        String t = clean(idText.toString());
+                        if (t != null) addIdentifier(ids, idScheme, t);
+                        idScheme = null;
+                    } else if (DC_NS.equals(r.getNamespaceURI())) {
+                        target = null;
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("XMP no válido: " + e.getMessage(), e);
+        } finally {
+            if (r != null) {
+                try { r.close(); } catch (XMLStreamException ignored) { }
+            }
+        }
+    }
+
+    /**
+     * Texto de un elemento aunque tenga hijos (p. ej. un rdf:li con xmpidq:Scheme y rdf:value),
+     * separado por espacios. Deja el lector en el END_ELEMENT del elemento.
+     */
+    private static String leafText(XMLStreamReader r) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (ev == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                if (!sb.isEmpty()) sb.append(' ');
+            } else if (ev == XMLStreamConstants.CHARACTERS) {
+                sb.append(r.getText().trim());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void addIdentifier(Map<String, String> ids, String scheme, String value) {
+        Identifiers.normalize(Map.of(scheme, value)).forEach(ids::putIfAbsent);
+    }
+
+    private static String clean(String s) {
+        if (s == null) return null;
+        s = s.trim();
+        return s.isEmpty() ? null : s;
+    }
+
+    private static XMLInputFactory newSecureFactory() {
+        XMLInputFactory f = XMLInputFactory.newFactory();
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        f.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return f;
+    }
+}
@@ -1,12 +1,14 @@
 package es.alepico.epuber.service;
 
 import es.alepico.epuber.model.BookMetadata;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.rendering.PDFRenderer;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
@@ -15,6 +17,16 @@ import java.util.zip.ZipOutputStream;
 
 public class PdfService {
 
+    private final IoScheduler io;
+
+    public PdfService() {
+        this(IoScheduler.shared());
+    }
+
+    public PdfService(IoScheduler io) {
+        this.io = io;
+    }
+
     public interface ProgressListener {
         default void onMessage(String msg) {}
         default void onProgress(long done, long total) {}
@@ -36,13 +48,15 @@ public class PdfService {
         Files.createDirectories(work.resolve("META-INF"));
         Files.createDirectories(OEBPS); Files.createDirectories(IMAGES); Files.createDirectories(XHTML);
 
-        // 1) Render PDF
+        // 1) Render PDF (trabajo de fondo: cede el disco y la CPU mientras el usuario interactúa)
         List<PageImage> pages = new ArrayList<>();
-        try (PDDocument doc = PDDocument.load(pdf.toFile())) {
+        try (PDDocument doc = loadDocument(pdf)) {
             PDFRenderer renderer = new PDFRenderer(doc);
             int total = doc.getNumberOfPages();
+            // Un único mensaje: el contador de páginas viaja estructurado en onProgress
+            if (listener != null) listener.onMessage("Renderizando páginas");
             for (int i=0; i<total; i++) {
-                if (listener != null) listener.onMessage("Renderizando página " + (i+1) + "/" + total);
+                awaitForeground();
                 BufferedImage img = renderer.renderImageWithDPI(i, dpi);
                 boolean isSpread = splitSpreads && (img.getWidth() / (double) img.getHeight()) > 1.30;
 
@@ -52,13 +66,13 @@ public class PdfService {
                     BufferedImage right = img.getSubimage(mid, 0, img.getWidth()-mid, img.getHeight());
                     String ln = String.format("p%03d_L.jpg", i+1);
                     String rn = String.format("p%03d_R.jpg", i+1);
-                    ImageIO.write(left, "jpg", IMAGES.resolve(ln).toFile());
-                    ImageIO.write(right,"jpg", IMAGES.resolve(rn).toFile());
+                    writeJpeg(left, IMAGES.resolve(ln));
+                    writeJpeg(right, IMAGES.resolve(rn));
                     pages.add(new PageImage(ln, left.getWidth(), left.getHeight(), "image/jpeg"));
                     pages.add(new PageImage(rn, right.getWidth(), right.getHeight(), "image/jpeg"));
                 } else {
                     String name = String.format("p%03d.jpg", i+1);
-                    ImageIO.write(img, "jpg", IMAGES.resolve(name).toFile());
+                    writeJpeg(img, IMAGES.resolve(name));
                     pages.add(new PageImage(name, img.getWidth(), img.getHeight(), "image/jpeg"));
                 }
                 if (listener != null) listener.onProgress(i+1, total);
@@ -71,7 +85,7 @@ public class PdfService {
         if (meta != null && meta.coverImage != null && Files.isRegularFile(meta.coverImage)) {
             coverHref = "cover.jpg";
             BufferedImage cimg = ImageIO.read(meta.coverImage.toFile());
-            ImageIO.write(cimg, "jpg", IMAGES.resolve(coverHref).toFile());
+            writeJpeg(cimg, IMAGES.resolve(coverHref));
         } else coverHref = pages.get(0).name;
 
         // 3) XHTMLs
@@ -98,7 +112,8 @@ public class PdfService {
 
         // 5) Zip final
         if (Files.exists(outEpub)) Files.delete(outEpub);
-        try (ZipOutputStream z = new ZipOutputStream(Files.newOutputStream(outEpub))) {
+        try (IoScheduler.Permit permit = acquire(outEpub);
+             ZipOutputStream z = new ZipOutputStream(permit.throttle(Files.newOutputStream(outEpub)))) {
             ZipEntry mime = new ZipEntry("mimetype");
             mime.setMethod(ZipEntry.STORED);
             byte[] mt = "application/epub+zip".getBytes(StandardCharsets.US_ASCII);
@@ -110,6 +125,52 @@ public class PdfService {
         deleteTree(work);
     }
 
+    // ===== Acceso a disco a través del planificador de E/S =====
+
+    private PDDocument loadDocument(Path pdf) throws IOException {
+        try (IoScheduler.Permit permit = acquire(pdf)) {
+            // Conversión completa: memoria de trabajo acotada, temporales sin tope
+            PDDocument doc = PDDocument.load(pdf.toFile(), MemoryUsageSetting.setupMixed(PdfProbe.MAX_MAIN_MEMORY));
+            try {
+                permit.account(Files.size(pdf)); // La carga lee el fichero entero
+            } catch (InterruptedException e) {
+                doc.close();
+                throw interrupted();
+            }
+            return doc;
+        }
+    }
+
+    private void writeJpeg(BufferedImage img, Path out) throws IOException {
+        try (IoScheduler.Permit permit = acquire(out)) {
+            ImageIO.write(img, "jpg", out.toFile());
+            permit.account(Files.size(out));
+        } catch (InterruptedException e) {
+            throw interrupted();
+        }
+    }
+
+    private IoScheduler.Permit acquire(Path path) throws IOException {
+        try {
+            return io.acquire(IoScheduler.Priority.BACKGROUND, path);
+        } catch (InterruptedException e) {
+            throw interrupted();
+        }
+    }
+
+    private void awaitForeground() throws IOException {
+        try {
+            io.awaitForeground();
+        } catch (InterruptedException e) {
+            throw interrupted();
+        }
+    }
+
+    private static IOException interrupted() {
+        Thread.currentThread().interrupt();
+        return new InterruptedIOException("Conversión interrumpida");
+    }
+
     // Helpers privados (simplificados para brevedad pero funcionales)
     private String esc(String s) { return s == null ? "" : s.replace("&","&amp;").replace("<","&lt;").replace(">","&gt;").replace("\"","&quot;"); }
     private void writeText(Path p, String t) throws IOException { Files.writeString(p, t, StandardCharsets.UTF_8, StandardOpenOption.CREATE); }
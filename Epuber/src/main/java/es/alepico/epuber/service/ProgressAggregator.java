@@ -0,0 +1,255 @@
+package es.alepico.epuber.service;
+
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Agrega el progreso de tareas largas y lo publica a ritmo fijo (20 Hz por defecto).
+ * Los servicios notifican cada elemento con operaciones atómicas baratas, sin construir
+ * cadenas; sólo en cada muestreo se genera una {@link Snapshot} con datos estructurados
+ * (elementos, bytes, ritmo, ETA y fichero actual) que la UI puede mostrar como quiera.
+ *
+ * Se conecta a los listeners de cada servicio mediante los adaptadores {@code as...Listener}.
+ */
+public class ProgressAggregator implements AutoCloseable {
+
+    /**
+     * Fotografía inmutable del progreso en un instante dado.
+     */
+    public record Snapshot(long itemsDone, long itemsTotal, long bytesDone,
+                           double itemsPerSecond, double bytesPerSecond,
+                           long etaSeconds, String currentItem, String message) {
+
+        /** Fracción completada (0..1) o -1 si el total es desconocido. */
+        public double fraction() {
+            return itemsTotal > 0 ? Math.min(1.0, itemsDone / (double) itemsTotal) : -1;
+        }
+
+        /**
+         * Texto breve para etiquetas de estado, p. ej.
+         * "12/300 · 4.2 MB/s · quedan 1m 20s · libro.epub".
+         */
+        public String describe() {
+            StringBuilder sb = new StringBuilder();
+            if (message != null && !message.isBlank()) sb.append(message).append(' ');
+            sb.append(itemsDone);
+            if (itemsTotal > 0) sb.append('/').append(itemsTotal);
+            if (bytesPerSecond > 0) {
+                sb.append(" · ").append(String.format(Locale.ROOT, "%.1f MB/s", bytesPerSecond / 1_048_576.0));
+            } else if (itemsPerSecond > 0) {
+                sb.append(" · ").append(String.format(Locale.ROOT, "%.1f/s", itemsPerSecond));
+            }
+            if (etaSeconds >= 0) sb.append(" · quedan ").append(formatDuration(etaSeconds));
+            if (currentItem != null) sb.append(" · ").append(currentItem);
+            return sb.toString();
+        }
+
+        private static String formatDuration(long secs) {
+            if (secs < 60) return secs + "s";
+            if (secs < 3600) return (secs / 60) + "m " + (secs % 60) + "s";
+            return (secs / 3600) + "h " + ((secs % 3600) / 60) + "m";
+        }
+    }
+
+    private static final int DEFAULT_HZ = 20;
+    /** Peso de la última muestra en la media móvil del ritmo. */
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private static final ScheduledExecutorService TICKER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "progress-ticker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Consumer<Snapshot> sink;
+    private final ScheduledFuture<?> tick;
+
+    private final AtomicLong itemsDone = new AtomicLong();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private final AtomicLong version = new AtomicLong();
+    private volatile long itemsTotal;
+    private volatile Object currentItem;
+    private volatile String message;
+
+    // Estado del muestreo (sólo lo toca el hilo del ticker o close())
+    private long publishedVersion = -1;
+    private long lastSampleNanos = System.nanoTime();
+    private long lastItems, lastBytes;
+    private double itemRate, byteRate;
+    private boolean closed;
+
+    public ProgressAggregator(Consumer<Snapshot> sink) {
+        this(sink, DEFAULT_HZ);
+    }
+
+    public ProgressAggregator(Consumer<Snapshot> sink, int hz) {
+        this.sink = sink;
+        long period = TimeUnit.SECONDS.toMillis(1) / Math.max(1, hz);
+        this.tick = TICKER.scheduleAtFixedRate(this::sample, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // ===== Notificaciones (camino caliente: sin reservar memoria) =====
+
+    public void setTotal(long total) {
+        itemsTotal = total;
+        version.incrementAndGet();
+    }
+
+    public void setDone(long done, long total) {
+        itemsDone.set(done);
+        itemsTotal = total;
+        version.incrementAndGet();
+    }
+
+    /**
+     * Marca un elemento como terminado. El objeto se guarda tal cual y sólo se convierte
+     * a texto cuando se publica una muestra.
+     */
+    public void itemDone(Object item, long bytes) {
+        currentItem = item;
+        itemsDone.incrementAndGet();
+        if (bytes > 0) bytesDone.addAndGet(bytes);
+        version.incrementAndGet();
+    }
+
+    public void addBytes(long bytes) {
+        bytesDone.addAndGet(bytes);
+        version.incrementAndGet();
+    }
+
+    public void setCurrent(Object item) {
+        currentItem = item;
+        version.incrementAndGet();
+    }
+
+    public void setMessage(String msg) {
+        message = msg;
+        version.incrementAndGet();
+    }
+
+    // ===== Adaptadores para los listeners existentes =====
+
+    /**
+     * Listener para {@link LibraryService#copyFiles}. Los mensajes de registro se reenvían
+     * a {@code log} (puede ser null); el progreso se coalesce.
+     */
+    public LibraryService.LibraryListener asLibraryListener(Consumer<String> log) {
+        return new LibraryService.LibraryListener() {
+            @Override public void onProgress(int current, int total, String msg) {
+                itemsDone.set(current);
+                itemsTotal = total;
+                message = msg;
+                version.incrementAndGet();
+            }
+            @Override public void onFile(Path file, long bytes) {
+                itemDone(file.getFileName(), bytes);
+            }
+            @Override public void onLog(String msg) {
+                if (log != null) log.accept(msg);
+            }
+        };
+    }
+
+    /**
+     * Listener para {@link PdfService#convert}: cada página cuenta como un elemento.
+     */
+    public PdfService.ProgressListener asPdfListener() {
+        return new PdfService.ProgressListener() {
+            @Override public void onMessage(String msg) { setMessage(msg); }
+            @Override public void onProgress(long done, long total) { setDone(done, total); }
+        };
+    }
+
+    /**
+     * Listener para {@link MetadataEnricher#enrich}; los libros sin respuesta se reenvían a
+     * {@code onTimeout} (puede ser null).
+     */
+    public MetadataEnricher.Listener asEnricherListener(Consumer<Path> onTimeout) {
+        return new MetadataEnricher.Listener() {
+            @Override public void onProgress(int done, int total) { setDone(done, total); }
+            @Override public void onTimeout(Path file) {
+                if (onTimeout != null) onTimeout.accept(file);
+            }
+        };
+    }
+
+    /**
+     * Listener para {@link CatalogExporter#export}.
+     */
+    public CatalogExporter.Listener asExportListener() {
+        return new CatalogExporter.Listener() {
+            @Override public void onProgress(int done, int total) { setDone(done, total); }
+        };
+    }
+
+    /**
+     * Listener para {@link EpubMetadataWriter#writeAll}: el progreso se coalesce y el resto de
+     * avisos se reenvían a {@code delegate}.
+     */
+    public EpubMetadataWriter.Listener asMetadataWriterListener(EpubMetadataWriter.Listener delegate) {
+        return new EpubMetadataWriter.Listener() {
+            @Override public void onProgress(int done, int total) { setDone(done, total); }
+            @Override public void onWritten(Path file) { delegate.onWritten(file); }
+            @Override public void onError(Path file, Exception error) { delegate.onError(file, error); }
+        };
+    }
+
+    /**
+     * Listener para {@link OpenLibraryIndex#build}: cuenta registros indexados (el total no se
+     * conoce hasta terminar de leer el volcado).
+     */
+    public OpenLibraryIndex.ImportListener asImportListener() {
+        return (lines, records) -> setDone(records, 0);
+    }
+
+    // ===== Muestreo =====
+
+    private synchronized void sample() {
+        if (closed) return;
+        publish(false);
+    }
+
+    private void publish(boolean force) {
+        long v = version.get();
+        long now = System.nanoTime();
+        long items = itemsDone.get();
+        long bytes = bytesDone.get();
+        double dt = (now - lastSampleNanos) / 1e9;
+        if (dt > 0) {
+            itemRate = smooth(itemRate, (items - lastItems) / dt);
+            byteRate = smooth(byteRate, (bytes - lastBytes) / dt);
+        }
+        lastSampleNanos = now;
+        lastItems = items;
+        lastBytes = bytes;
+        if (!force && v == publishedVersion) return;
+        publishedVersion = v;
+
+        long total = itemsTotal;
+        long eta = (total > 0 && itemRate > 0) ? (long) Math.ceil((total - items) / itemRate) : -1;
+        Object cur = currentItem;
+        sink.accept(new Snapshot(items, total, bytes, itemRate, byteRate, eta,
+                cur == null ? null : cur.toString(), message));
+    }
+
+    private static double smooth(double previous, double sample) {
+        return previous == 0 ? sample : previous + RATE_SMOOTHING * (sample - previous);
+    }
+
+    /**
+     * Detiene el muestreo y publica una última muestra con el estado final.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        tick.cancel(false);
+        publish(true);
+        closed = true;
+    }
+}
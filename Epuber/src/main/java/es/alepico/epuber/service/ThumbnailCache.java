@@ -0,0 +1,316 @@
+package es.alepico.epuber.service;
+
+import es.alepico.epuber.util.AppDirs;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Caché persistente de miniaturas de portada: JPEG ya escalados en {@code ~/.epuber/thumbs},
+ * uno por libro y altura. El nombre del fichero es un hash de (ruta, tamaño, fecha de
+ * modificación, altura), así que un libro modificado genera otra miniatura y la vieja acaba
+ * saliendo por el límite de tamaño; no hace falta índice ni invalidación.
+ *
+ * Los libros sin portada se guardan como fichero vacío para no volver a abrirlos. El orden LRU
+ * es la fecha de modificación de cada miniatura, que se renueva (como mucho una vez por hora)
+ * cuando se usa: sobrevive a los reinicios sin escribir ningún índice.
+ *
+ * Al generar una miniatura se calcula también el color dominante de la portada y se guarda con
+ * los metadatos del libro en {@link MetadataCache}, para que la galería pinte el hueco de ese
+ * color desde el primer fotograma, antes de tener la imagen.
+ */
+public class ThumbnailCache {
+
+    /** Altura de las miniaturas de la galería de carátulas. */
+    public static final int GRID_HEIGHT = 320;
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final float JPEG_QUALITY = 0.85f;
+    private static final long TOUCH_INTERVAL_MILLIS = 60 * 60 * 1000L;
+    /** Al superar el límite se borra hasta quedar en este porcentaje, para no recortar en cada alta. */
+    private static final int TRIM_TO_PERCENT = 90;
+
+    private static final ThumbnailCache SHARED =
+            new ThumbnailCache(AppDirs.resolve("thumbs"), DEFAULT_MAX_BYTES, IoScheduler.shared(), MetadataCache.shared());
+
+    /**
+     * Resumen de un precalentamiento.
+     */
+    public record Report(int total, int generated, int cached, int withoutCover, long elapsedMillis) {
+        public String describe() {
+            return String.format(Locale.ROOT, "Miniaturas: %d libros en %.1f s: %d generadas, %d ya en caché, %d sin portada",
+                    total, elapsedMillis / 1000.0, generated, cached, withoutCover);
+        }
+    }
+
+    private final Path dir;
+    private final long maxBytes;
+    private final IoScheduler io;
+    private final MetadataCache catalog;
+    private final Map<String, FutureTask<Path>> inFlight = new ConcurrentHashMap<>();
+    /** Bytes ocupados; -1 hasta el primer recuento. */
+    private final AtomicLong usedBytes = new AtomicLong(-1);
+
+    public ThumbnailCache(Path dir, long maxBytes, IoScheduler io, MetadataCache catalog) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.io = io;
+        this.catalog = catalog;
+    }
+
+    public static ThumbnailCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Miniatura ya generada, o null si no está (o el libro no tiene portada). No abre el libro.
+     */
+    public Path find(Path book, int height) {
+        Path thumb = thumbFor(book, height);
+        if (thumb == null) return null;
+        try {
+            BasicFileAttributes a = Files.readAttributes(thumb, BasicFileAttributes.class);
+            touch(thumb, a);
+            return a.size() > 0 ? thumb : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Miniatura del libro, generándola si hace falta. Si otro hilo ya la está generando, espera
+     * a ese en lugar de repetir el trabajo. Devuelve null si el libro no tiene portada.
+     */
+    public Path get(Path book, int height, IoScheduler.Priority priority) throws InterruptedException {
+        Path thumb = thumbFor(book, height);
+        if (thumb == null) return null;
+        try {
+            BasicFileAttributes a = Files.readAttributes(thumb, BasicFileAttributes.class);
+            touch(thumb, a);
+            return a.size() > 0 ? thumb : null;
+        } catch (IOException notCached) {
+            // Hay que generarla
+        }
+
+        String key = thumb.getFileName().toString();
+        FutureTask<Path> mine = new FutureTask<>(() -> generate(book, height, priority, thumb));
+        FutureTask<Path> running = inFlight.putIfAbsent(key, mine);
+        if (running == null) {
+            try {
+                mine.run();
+            } finally {
+                inFlight.remove(key, mine);
+            }
+            running = mine;
+        }
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InterruptedException) throw new InterruptedException();
+            return null;
+        }
+    }
+
+    /**
+     * Genera en segundo plano las miniaturas que falten de la lista, con prioridad BACKGROUND
+     * para que la galería y las copias del usuario vayan antes. De las que ya estaban en disco
+     * sin color dominante guardado (de antes de que se calculara) lo saca de la miniatura. Vuelve
+     * al terminar; si se interrumpe el hilo, deja de lanzar libros y relanza la interrupción.
+     */
+    public Report prewarm(List<Path> books, int height) throws InterruptedException {
+        long start = System.nanoTime();
+        AtomicInteger generated = new AtomicInteger(), cached = new AtomicInteger(), withoutCover = new AtomicInteger();
+        // Decodificar y escalar es sobre todo CPU: pocos a la vez, dejando núcleos a la interfaz
+        Semaphore slots = new Semaphore(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            try {
+                for (Path book : books) {
+                    Path thumb = thumbFor(book, height);
+                    boolean exists = thumb != null && Files.exists(thumb);
+                    if (thumb == null || exists) {
+                        (thumb == null ? withoutCover : cached).incrementAndGet();
+                        if (!exists || catalog.coverColor(book) >= 0) continue;
+                    }
+                    slots.acquire();
+                    exec.submit(() -> {
+                        try {
+                            io.awaitForeground();
+                            if (exists) {
+                                backfillColor(book, thumb);
+                                return;
+                            }
+                            boolean hasCover = get(book, height, IoScheduler.Priority.BACKGROUND) != null;
+                            (hasCover ? generated : withoutCover).incrementAndGet();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                }
+            } catch (InterruptedException e) {
+                exec.shutdownNow();
+                throw e;
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        return new Report(books.size(), generated.get(), cached.get(), withoutCover.get(), elapsed);
+    }
+
+    /**
+     * Recorta la caché al límite de tamaño borrando las miniaturas usadas hace más tiempo.
+     */
+    public synchronized void trim() throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        record Thumb(Path path, long size, long lastUsed) { }
+        List<Thumb> all = new ArrayList<>();
+        try (Stream<Path> s = Files.walk(dir, 2)) {
+            for (Path p : (Iterable<Path>) s::iterator) {
+                if (p.getFileName().toString().endsWith(".tmp")) continue; // A medio escribir por otro hilo
+                try {
+                    BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+                    if (a.isRegularFile()) all.add(new Thumb(p, a.size(), a.lastModifiedTime().toMillis()));
+                } catch (IOException ignored) {
+                    // Borrada mientras se recorría
+                }
+            }
+        }
+        long used = 0;
+        for (Thumb t : all) used += t.size();
+        if (used > maxBytes) {
+            long goal = maxBytes / 100 * TRIM_TO_PERCENT;
+            all.sort((a, b) -> Long.compare(a.lastUsed(), b.lastUsed()));
+            for (Thumb t : all) {
+                if (used <= goal) break;
+                if (Files.deleteIfExists(t.path())) used -= t.size();
+            }
+        }
+        usedBytes.set(used);
+    }
+
+    // ===== Generación =====
+
+    private Path generate(Path book, int height, IoScheduler.Priority priority, Path thumb) throws Exception {
+        BufferedImage img;
+        try (IoScheduler.Permit permit = io.acquire(priority, book)) {
+            img = CoverRenderer.render(book, height, permit);
+        } catch (IOException | RuntimeException e) {
+            // Puede ser pasajero (libro a medio copiar, disco desconectado): no se recuerda como
+            // "sin portada" y se reintenta la próxima vez
+            return null;
+        }
+        Files.createDirectories(thumb.getParent());
+        Path tmp = thumb.resolveSibling(thumb.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            if (img != null) writeJpeg(img, out);
+        }
+        Files.move(tmp, thumb, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        noteAdded(Files.size(thumb));
+        if (img == null) return null;
+        // En segundo plano se puede esperar a extraer los metadatos; en primer plano el color sólo
+        // se guarda si ya estaban, y si no lo recupera el siguiente prewarm()
+        if (priority == IoScheduler.Priority.BACKGROUND) catalog.get(book, priority);
+        catalog.putCoverColor(book, CoverRenderer.dominantColor(img));
+        return thumb;
+    }
+
+    /**
+     * Color dominante a partir de una miniatura ya guardada (vacía = sin portada, no hay color).
+     */
+    private void backfillColor(Path book, Path thumb) {
+        try {
+            if (Files.size(thumb) == 0) return;
+            BufferedImage img = ImageIO.read(thumb.toFile());
+            if (img == null) return;
+            catalog.get(book, IoScheduler.Priority.BACKGROUND);
+            catalog.putCoverColor(book, CoverRenderer.dominantColor(img));
+        } catch (IOException ignored) {
+            // Miniatura borrada por el recorte o ilegible: se queda sin color
+        }
+    }
+
+    private static void writeJpeg(BufferedImage img, OutputStream out) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private void noteAdded(long bytes) throws IOException {
+        long used = usedBytes.get();
+        if (used < 0) {
+            trim(); // Primer alta de la sesión: recuento completo
+        } else if (usedBytes.addAndGet(bytes) > maxBytes) {
+            trim();
+        }
+    }
+
+    /**
+     * Marca la miniatura como usada ahora, salvo que ya se hiciera hace poco.
+     */
+    private static void touch(Path thumb, BasicFileAttributes a) {
+        long now = System.currentTimeMillis();
+        if (now - a.lastModifiedTime().toMillis() < TOUCH_INTERVAL_MILLIS) return;
+        try {
+            Files.setLastModifiedTime(thumb, FileTime.fromMillis(now));
+        } catch (IOException ignored) {
+            // Sólo afecta al orden de expulsión
+        }
+    }
+
+    /**
+     * {@code thumbs/ab/abcdef....jpg}, o null si no se puede leer el libro. Las dos primeras
+     * cifras del hash reparten los ficheros en subdirectorios para no tener miles en uno.
+     */
+    private Path thumbFor(Path book, int height) {
+        BasicFileAttributes a;
+        try {
+            a = Files.readAttributes(book, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+        String id = book.toAbsolutePath().normalize() + "\n" + a.size() + "\n"
+                + a.lastModifiedTime().toMillis() + "\n" + height;
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(id.getBytes(StandardCharsets.UTF_8));
+            String hex = HexFormat.of().formatHex(d, 0, 16);
+            return dir.resolve(hex.substring(0, 2)).resolve(hex + ".jpg");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
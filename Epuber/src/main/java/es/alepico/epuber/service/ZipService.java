@@ -2,6 +2,7 @@ package es.alepico.epuber.service;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.Comparator;
@@ -17,6 +18,16 @@ import java.util.zip.ZipOutputStream;
  */
 public class ZipService {
 
+    private final IoScheduler io;
+
+    public ZipService() {
+        this(IoScheduler.shared());
+    }
+
+    public ZipService(IoScheduler io) {
+        this.io = io;
+    }
+
     /**
      * Descomprime un archivo ZIP (o EPUB) en un directorio de destino.
      * @param zipFilePath Ruta al archivo zip.
@@ -27,7 +38,8 @@ public class ZipService {
             Files.createDirectories(destDir);
         }
 
-        try (ZipFile zip = new ZipFile(zipFilePath.toFile())) {
+        try (IoScheduler.Permit permit = acquire(zipFilePath, destDir);
+             ZipFile zip = new ZipFile(zipFilePath.toFile())) {
             Enumeration<? extends ZipEntry> entries = zip.entries();
             while (entries.hasMoreElements()) {
                 ZipEntry ze = entries.nextElement();
@@ -44,7 +56,7 @@ public class ZipService {
                     if (outPath.getParent() != null) {
                         Files.createDirectories(outPath.getParent());
                     }
-                    try (InputStream is = zip.getInputStream(ze)) {
+                    try (InputStream is = permit.throttle(zip.getInputStream(ze))) {
                         Files.copy(is, outPath, StandardCopyOption.REPLACE_EXISTING);
                     }
                 }
@@ -63,7 +75,8 @@ public class ZipService {
             Files.delete(outFile);
         }
 
-        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(outFile))) {
+        try (IoScheduler.Permit permit = acquire(sourceDir, outFile);
+             ZipOutputStream zos = new ZipOutputStream(permit.throttle(Files.newOutputStream(outFile)))) {
             // 1. Escribir mimetype (SIEMPRE primero y STORED/Sin comprimir)
             Path mimePath = sourceDir.resolve("mimetype");
             if (Files.exists(mimePath)) {
@@ -118,6 +131,18 @@ public class ZipService {
         }
     }
 
+    /**
+     * Reserva los dispositivos implicados en el planificador de E/S compartido.
+     */
+    private IoScheduler.Permit acquire(Path... paths) throws IOException {
+        try {
+            return io.acquire(IoScheduler.Priority.BACKGROUND, paths);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Operación ZIP interrumpida");
+        }
+    }
+
     /**
      * Calcula el CRC32 necesario para entradas STORED.
      */
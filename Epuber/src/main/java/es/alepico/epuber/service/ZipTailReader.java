@@ -0,0 +1,323 @@
+package es.alepico.epuber.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Lector ZIP mínimo basado en lecturas posicionales de {@link FileChannel}.
+ * Lee el End-of-Central-Directory del final del fichero, conserva sólo el directorio central
+ * (unos pocos KB en un EPUB normal) y descomprime bajo demanda las entradas pedidas.
+ * No indexa todas las entradas ni abre un manejador nativo como {@code java.util.zip.ZipFile}.
+ */
+public final class ZipTailReader implements AutoCloseable {
+
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int EOCD64_LOCATOR_SIG = 0x07064b50;
+    private static final int EOCD64_SIG = 0x06064b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+    private static final int EOCD_MIN = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+    private static final int CHUNK = 8 * 1024;
+
+    /**
+     * Entrada del directorio central.
+     */
+    public record Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) { }
+
+    private final FileChannel channel;
+    private final ByteBuffer centralDirectory;
+    private long bytesRead;
+
+    private ZipTailReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.centralDirectory = readCentralDirectory();
+    }
+
+    public static ZipTailReader open(Path zip) throws IOException {
+        FileChannel ch = FileChannel.open(zip, StandardOpenOption.READ);
+        try {
+            return new ZipTailReader(ch);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Busca una entrada por nombre exacto. Compara bytes sin crear cadenas por cada entrada.
+     */
+    public Entry find(String name) {
+        byte[] wanted = name.getBytes(StandardCharsets.UTF_8);
+        return scan((cd, off, len) -> len == wanted.length
+                && Arrays.equals(cd.array(), off, off + len, wanted, 0, len));
+    }
+
+    /**
+     * Primera entrada cuyo nombre cumple el predicado (p. ej. termina en ".opf").
+     */
+    public Entry findFirst(Predicate<String> namePredicate) {
+        return scan((cd, off, len) -> namePredicate.test(new String(cd.array(), off, len, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Abre el contenido (ya descomprimido) de una entrada. El flujo lee el fichero por trozos,
+     * así que si el llamante deja de leer pronto sólo se habrán leído unos KB.
+     */
+    public InputStream openEntry(Entry e) throws IOException {
+        ByteBuffer loc = readAt(e.localHeaderOffset(), 30);
+        if (loc.getInt(0) != LOC_SIG) throw new ZipException("Cabecera local no válida: " + e.name());
+        int nameLen = Short.toUnsignedInt(loc.getShort(26));
+        int extraLen = Short.toUnsignedInt(loc.getShort(28));
+        long dataStart = e.localHeaderOffset() + 30 + nameLen + extraLen;
+
+        return switch (e.method()) {
+            case 0 -> new RangeInputStream(dataStart, e.size(), false);
+            // Inflater en modo "nowrap" necesita un byte extra al final de la entrada
+            case 8 -> new InflaterInputStream(new RangeInputStream(dataStart, e.compressedSize(), true),
+                    new Inflater(true), 4096) {
+                @Override public void close() throws IOException {
+                    super.close();
+                    inf.end();
+                }
+            };
+            default -> throw new ZipException("Método de compresión no soportado: " + e.method());
+        };
+    }
+
+    /**
+     * Bytes leídos del disco desde que se abrió (para medir el coste de la sonda).
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    // ===== Copia en bruto (reescritura sin descomprimir) =====
+
+    /**
+     * Registro del directorio central de una entrada, tal cual está en el fichero.
+     */
+    record CentralRecord(Entry entry, int flags, byte[] raw) { }
+
+    /**
+     * Todas las entradas en el orden del directorio central.
+     */
+    List<CentralRecord> centralRecords() {
+        ByteBuffer cd = centralDirectory;
+        List<CentralRecord> out = new ArrayList<>();
+        int pos = 0;
+        while (pos + 46 <= cd.capacity() && cd.getInt(pos) == CEN_SIG) {
+            int len = recordLength(pos);
+            out.add(new CentralRecord(entryAt(pos), Short.toUnsignedInt(cd.getShort(pos + 8)),
+                    Arrays.copyOfRange(cd.array(), pos, pos + len)));
+            pos += len;
+        }
+        return out;
+    }
+
+    /**
+     * Copia la cabecera local, los datos comprimidos y el descriptor de datos (si lo hay) de
+     * una entrada sin descomprimirlos, con {@link FileChannel#transferTo}. Devuelve los bytes copiados.
+     */
+    long transferRaw(CentralRecord r, WritableByteChannel out) throws IOException {
+        Entry e = r.entry();
+        ByteBuffer loc = readAt(e.localHeaderOffset(), 30);
+        if (loc.getInt(0) != LOC_SIG) throw new ZipException("Cabecera local no válida: " + e.name());
+        long length = 30L + Short.toUnsignedInt(loc.getShort(26)) + Short.toUnsignedInt(loc.getShort(28))
+                + e.compressedSize();
+        if ((r.flags() & 0x08) != 0) {
+            // Descriptor de datos tras la entrada: 12 bytes, o 16 con la firma opcional
+            ByteBuffer dd = readAt(e.localHeaderOffset() + length, 4);
+            length += dd.getInt(0) == DATA_DESCRIPTOR_SIG ? 16 : 12;
+        }
+        long start = e.localHeaderOffset(), done = 0;
+        while (done < length) {
+            long n = channel.transferTo(start + done, length - done, out);
+            if (n <= 0) throw new ZipException("Fin de fichero inesperado");
+            done += n;
+        }
+        bytesRead += length;
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // ===== Directorio central =====
+
+    private ByteBuffer readCentralDirectory() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < EOCD_MIN) throw new ZipException("Fichero demasiado pequeño para ser un ZIP");
+
+        // El EOCD está en los últimos 22 bytes salvo que haya comentario: primero se miran
+        // los últimos 1024 bytes (caso habitual) y sólo si no aparece, los 64 KB finales
+        int firstLen = (int) Math.min(fileSize, 1024);
+        long tailStart = fileSize - firstLen;
+        ByteBuffer tail = readAt(tailStart, firstLen);
+        int eocd = findEocd(tail);
+        if (eocd < 0 && fileSize > firstLen) {
+            int fullLen = (int) Math.min(fileSize, EOCD_MIN + MAX_COMMENT);
+            tailStart = fileSize - fullLen;
+            tail = readAt(tailStart, fullLen);
+            eocd = findEocd(tail);
+        }
+        if (eocd < 0) throw new ZipException("EOCD no encontrado");
+
+        long cdSize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+        long cdOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+        if (cdSize == 0xFFFFFFFFL || cdOffset == 0xFFFFFFFFL) {
+            long[] z64 = readZip64(tailStart + eocd);
+            cdSize = z64[0];
+            cdOffset = z64[1];
+        }
+        if (cdSize > Integer.MAX_VALUE || cdOffset + cdSize > fileSize) throw new ZipException("Directorio central no válido");
+        return readAt(cdOffset, (int) cdSize);
+    }
+
+    private static int findEocd(ByteBuffer tail) {
+        for (int i = tail.capacity() - EOCD_MIN; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIG) return i;
+        }
+        return -1;
+    }
+
+    private long[] readZip64(long eocdPos) throws IOException {
+        ByteBuffer locator = readAt(eocdPos - 20, 20);
+        if (locator.getInt(0) != EOCD64_LOCATOR_SIG) throw new ZipException("ZIP64 sin localizador");
+        long eocd64Pos = locator.getLong(8);
+        ByteBuffer eocd64 = readAt(eocd64Pos, 56);
+        if (eocd64.getInt(0) != EOCD64_SIG) throw new ZipException("EOCD ZIP64 no válido");
+        return new long[] { eocd64.getLong(40), eocd64.getLong(48) };
+    }
+
+    private interface NameMatcher {
+        boolean test(ByteBuffer cd, int offset, int length);
+    }
+
+    private Entry scan(NameMatcher matcher) {
+        ByteBuffer cd = centralDirectory;
+        int pos = 0;
+        while (pos + 46 <= cd.capacity() && cd.getInt(pos) == CEN_SIG) {
+            int nameLen = Short.toUnsignedInt(cd.getShort(pos + 28));
+            if (matcher.test(cd, pos + 46, nameLen)) return entryAt(pos);
+            pos += recordLength(pos);
+        }
+        return null;
+    }
+
+    private Entry entryAt(int pos) {
+        ByteBuffer cd = centralDirectory;
+        int method = Short.toUnsignedInt(cd.getShort(pos + 10));
+        long csize = Integer.toUnsignedLong(cd.getInt(pos + 20));
+        long size = Integer.toUnsignedLong(cd.getInt(pos + 24));
+        int nameLen = Short.toUnsignedInt(cd.getShort(pos + 28));
+        int extraLen = Short.toUnsignedInt(cd.getShort(pos + 30));
+        long offset = Integer.toUnsignedLong(cd.getInt(pos + 42));
+        long[] z64 = zip64Fields(cd, pos + 46 + nameLen, extraLen, size, csize, offset);
+        String name = new String(cd.array(), pos + 46, nameLen, StandardCharsets.UTF_8);
+        return new Entry(name, method, z64[1], z64[0], z64[2]);
+    }
+
+    private int recordLength(int pos) {
+        ByteBuffer cd = centralDirectory;
+        return 46 + Short.toUnsignedInt(cd.getShort(pos + 28))
+                + Short.toUnsignedInt(cd.getShort(pos + 30))
+                + Short.toUnsignedInt(cd.getShort(pos + 32));
+    }
+
+    /**
+     * Sustituye los campos marcados como 0xFFFFFFFF por los del campo extra ZIP64.
+     */
+    private static long[] zip64Fields(ByteBuffer cd, int extraPos, int extraLen, long size, long csize, long offset) {
+        int p = extraPos, end = extraPos + extraLen;
+        while (p + 4 <= end) {
+            int id = Short.toUnsignedInt(cd.getShort(p));
+            int len = Short.toUnsignedInt(cd.getShort(p + 2));
+            if (id == 0x0001) {
+                int q = p + 4;
+                if (size == 0xFFFFFFFFL && q + 8 <= end) { size = cd.getLong(q); q += 8; }
+                if (csize == 0xFFFFFFFFL && q + 8 <= end) { csize = cd.getLong(q); q += 8; }
+                if (offset == 0xFFFFFFFFL && q + 8 <= end) { offset = cd.getLong(q); }
+                break;
+            }
+            p += 4 + len;
+        }
+        return new long[] { size, csize, offset };
+    }
+
+    private ByteBuffer readAt(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) throw new ZipException("Fin de fichero inesperado");
+            bytesRead += n;
+        }
+        return buf.flip();
+    }
+
+    // ===== Flujo sobre un rango del fichero =====
+
+    private final class RangeInputStream extends InputStream {
+        private long pos;
+        private final long end;
+        private boolean padPending;
+        private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK);
+
+        RangeInputStream(long start, long length, boolean padForInflater) {
+            this.pos = start;
+            this.end = start + length;
+            this.padPending = padForInflater;
+            chunk.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!chunk.hasRemaining()) {
+                if (pos >= end) {
+                    if (padPending) {
+                        padPending = false;
+                        b[off] = 0;
+                        return 1;
+                    }
+                    return -1;
+                }
+                chunk.clear();
+                chunk.limit((int) Math.min(CHUNK, end - pos));
+                while (chunk.hasRemaining()) {
+                    int n = channel.read(chunk, pos);
+                    if (n < 0) throw new ZipException("Fin de fichero inesperado");
+                    pos += n;
+                    bytesRead += n;
+                }
+                chunk.flip();
+            }
+            int n = Math.min(len, chunk.remaining());
+            chunk.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -32,14 +32,18 @@ public class MainWindow {
         // Instanciar y añadir cada módulo funcional
         // Pasamos el 'stage' a aquellos que necesiten abrir diálogos (Library y Converter)
         CoversTab coversTab = new CoversTab();
+        DuplicatesTab duplicatesTab = new DuplicatesTab(stage);
         LibraryTab libraryTab = new LibraryTab(stage);
-        libraryTab.setOnScanFinished(coversTab::updateFiles);
+        libraryTab.setOnScanFinished(files -> {
+            coversTab.updateFiles(files);
+            duplicatesTab.updateFiles(files);
+        });
 
         tabPane.getTabs().addAll(
             libraryTab,
             new ConverterTab(stage),
             coversTab,        // Activada tras escanear Biblioteca
-            new DuplicatesTab(stage)
+            duplicatesTab     // Ídem: agrupa por identificador
         );
 
         // Configurar estilos para que las pestañas no se cierren
@@ -0,0 +1,400 @@
+package es.alepico.epuber.ui.common;
+
+import es.alepico.epuber.service.IoScheduler;
+import es.alepico.epuber.service.MetadataExtractor;
+import javafx.animation.PauseTransition;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.IndexedCell;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.skin.VirtualFlow;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Background;
+import javafx.scene.layout.BackgroundFill;
+import javafx.scene.layout.CornerRadii;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.util.Duration;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Rejilla de portadas virtualizada con desplazamiento continuo, para recorrer la biblioteca
+ * entera (decenas de miles de libros) sin paginar. Es un ListView cuyas filas agrupan tantos
+ * libros como quepan a lo ancho: el ListView sólo crea celdas para las filas visibles más un
+ * par de margen y las recicla al desplazarse, así que el número de nodos no depende del tamaño
+ * de la lista. La lista de libros se enlaza tal cual; no se crea nada por libro.
+ *
+ * Portada y título se piden al {@link ThumbnailLoader} cuando una celda pasa a mostrar un libro,
+ * por su distancia a la primera fila visible; si la celda se recicla para otro libro antes de
+ * que llegue, la petición se cancela. Mientras tanto el hueco se pinta con el color dominante de
+ * la portada si ya se conoce ({@link #setCoverColorLookup}), para que la página no parezca vacía.
+ *
+ * Cuando el desplazamiento se detiene se precarga la pantalla siguiente y, si sigue quieto, la
+ * anterior, con prioridad BACKGROUND también para los títulos; mientras se desplaza no se
+ * precarga nada.
+ */
+public final class CoverGrid extends ListView<Integer> {
+
+    private static final double CELL_WIDTH = 212;
+    private static final double ROW_HEIGHT = 340;
+    private static final double COVER_HEIGHT = 260;
+    /** Hueco provisional con la proporción habitual de una portada (2:3). */
+    private static final double SWATCH_WIDTH = COVER_HEIGHT * 2 / 3;
+    /** Hueco para la barra de desplazamiento vertical al calcular las columnas. */
+    private static final double SCROLLBAR_ALLOWANCE = 24;
+    private static final int PREFETCH_PRIORITY = 100_000;
+    private static final Duration PREFETCH_DELAY = Duration.millis(400);
+    private static final Duration PREFETCH_IDLE_DELAY = Duration.millis(1500);
+
+    private record Loaded(Image cover, String title) { }
+
+    private final ThumbnailLoader loader;
+    private final CoverImageCache covers;
+    private final PauseTransition prefetchAhead = new PauseTransition(PREFETCH_DELAY);
+    private final PauseTransition prefetchBehind = new PauseTransition(PREFETCH_IDLE_DELAY);
+    private final List<ThumbnailLoader.Request> prefetches = new ArrayList<>();
+    /** Títulos ya resueltos. Como todo el estado de la rejilla, sólo se toca desde el hilo de JavaFX. */
+    private final Map<Path, String> titles = new HashMap<>();
+    private List<Path> books = List.of();
+    private int columns = 1;
+    /** Cambia con {@link #reload()} para que las celdas vuelvan a pedir aunque muestren el mismo libro. */
+    private int generation;
+    private VirtualFlow<?> flow;
+
+    private BiFunction<Path, IoScheduler.Priority, String> titleLoader = (p, priority) -> p.getFileName().toString();
+    private ToIntFunction<Path> coverColorLookup = p -> -1;
+    private Consumer<Path> onOpen = p -> { };
+    private Function<Path, ContextMenu> contextMenuFactory = p -> null;
+
+    public CoverGrid() {
+        this(ThumbnailLoader.shared(), CoverImageCache.shared());
+    }
+
+    public CoverGrid(ThumbnailLoader loader, CoverImageCache covers) {
+        this.loader = loader;
+        this.covers = covers;
+        setFixedCellSize(ROW_HEIGHT);
+        setCellFactory(lv -> new RowCell());
+        widthProperty().addListener((obs, o, w) -> updateColumns());
+
+        prefetchAhead.setOnFinished(e -> prefetch(true));
+        prefetchBehind.setOnFinished(e -> prefetch(false));
+        addEventFilter(ScrollEvent.ANY, e -> schedulePrefetch());
+        addEventFilter(KeyEvent.KEY_PRESSED, e -> schedulePrefetch());
+        addEventFilter(MouseEvent.MOUSE_DRAGGED, e -> schedulePrefetch());
+    }
+
+    /**
+     * Muestra otra lista de libros desde el principio.
+     */
+    public void setBooks(List<Path> newBooks) {
+        cancelPrefetch();
+        books = List.copyOf(newBooks);
+        titles.clear();
+        generation++;
+        rebuildRows();
+        scrollTo(0);
+        schedulePrefetch();
+    }
+
+    public List<Path> getBooks() {
+        return books;
+    }
+
+    /**
+     * Vuelve a pedir portadas y títulos de lo visible (tras editar metadatos o reescribir libros).
+     */
+    public void reload() {
+        titles.clear();
+        generation++;
+        refresh();
+    }
+
+    /**
+     * Cambia el título mostrado de un libro sin recargar su portada.
+     */
+    public void setTitle(Path book, String title) {
+        titles.put(book, title);
+        refresh();
+    }
+
+    /**
+     * Cómo obtener el título de un libro, con la prioridad de E/S que corresponda: INTERACTIVE
+     * para lo visible y BACKGROUND para la precarga. Se llama fuera del hilo de JavaFX.
+     */
+    public void setTitleLoader(BiFunction<Path, IoScheduler.Priority, String> titleLoader) {
+        this.titleLoader = titleLoader;
+    }
+
+    /**
+     * Color dominante conocido de la portada (0xRRGGBB, o -1) para pintar el hueco mientras se
+     * carga. Se llama en el hilo de JavaFX al mostrar cada celda: sólo debe mirar memoria.
+     */
+    public void setCoverColorLookup(ToIntFunction<Path> coverColorLookup) {
+        this.coverColorLookup = coverColorLookup;
+    }
+
+    /** Doble clic sobre una portada. */
+    public void setOnOpen(Consumer<Path> onOpen) {
+        this.onOpen = onOpen;
+    }
+
+    /** Menú contextual de una portada; puede devolver null. */
+    public void setContextMenuFactory(Function<Path, ContextMenu> contextMenuFactory) {
+        this.contextMenuFactory = contextMenuFactory;
+    }
+
+    // ===== Filas =====
+
+    private void updateColumns() {
+        int cols = Math.max(1, (int) ((getWidth() - SCROLLBAR_ALLOWANCE) / CELL_WIDTH));
+        if (cols == columns) return;
+        int firstBook = firstVisibleRow() * columns;
+        columns = cols;
+        rebuildRows();
+        scrollTo(firstBook / columns);
+    }
+
+    private void rebuildRows() {
+        int rows = (books.size() + columns - 1) / columns;
+        Integer[] indexes = new Integer[rows];
+        for (int i = 0; i < rows; i++) indexes[i] = i;
+        getItems().setAll(indexes);
+    }
+
+    private int firstVisibleRow() {
+        IndexedCell<?> c = flow() != null ? flow.getFirstVisibleCell() : null;
+        return c != null ? Math.max(0, c.getIndex()) : 0;
+    }
+
+    private int lastVisibleRow() {
+        IndexedCell<?> c = flow() != null ? flow.getLastVisibleCell() : null;
+        return c != null ? c.getIndex() : firstVisibleRow();
+    }
+
+    private VirtualFlow<?> flow() {
+        if (flow == null) flow = (VirtualFlow<?>) lookup(".virtual-flow");
+        return flow;
+    }
+
+    // ===== Precarga =====
+
+    /**
+     * Cada movimiento reinicia la espera y descarta lo que hubiera en cola: desplazándose
+     * deprisa no se precarga nada.
+     */
+    private void schedulePrefetch() {
+        cancelPrefetch();
+        prefetchAhead.playFromStart();
+        prefetchBehind.playFromStart();
+    }
+
+    private void cancelPrefetch() {
+        prefetchAhead.stop();
+        prefetchBehind.stop();
+        prefetches.forEach(ThumbnailLoader.Request::cancel);
+        prefetches.clear();
+    }
+
+    /**
+     * Precarga una pantalla de filas por debajo (o por encima) de lo visible, con la prioridad
+     * más baja: miniatura en disco, en memoria si cabe, y el título.
+     */
+    private void prefetch(boolean ahead) {
+        int first = firstVisibleRow(), last = lastVisibleRow(), span = last - first + 1;
+        int from = ahead ? last + 1 : Math.max(0, first - span);
+        int to = Math.min(ahead ? last + span : first - 1, getItems().size() - 1);
+        int k = 0;
+        for (int row = from; row <= to; row++) {
+            for (int c = 0; c < columns; c++) {
+                int i = row * columns + c;
+                if (i >= books.size()) break;
+                Path book = books.get(i);
+                boolean needTitle = !titles.containsKey(book);
+                prefetches.add(loader.submit(PREFETCH_PRIORITY + k++, () -> {
+                    covers.prefetch(book);
+                    return needTitle ? titleLoader.apply(book, IoScheduler.Priority.BACKGROUND) : null;
+                }, title -> {
+                    if (title != null) titles.putIfAbsent(book, title);
+                }));
+            }
+        }
+    }
+
+    private static Label placeholder(String text) {
+        Label placeholder = new Label(text);
+        placeholder.setMinSize(180, 240);
+        placeholder.setAlignment(Pos.CENTER);
+        placeholder.setStyle("-fx-border-color:#cbd5e1; -fx-border-radius:10; -fx-padding:10; -fx-background-radius:10; -fx-background-color: rgba(0,0,0,0.02);");
+        return placeholder;
+    }
+
+    // ===== Celdas =====
+
+    /**
+     * Una fila de la rejilla. Reutiliza sus {@link CoverCell} al reciclarse; sólo crea más si
+     * la ventana se ensancha.
+     */
+    private final class RowCell extends ListCell<Integer> {
+        private final HBox box = new HBox();
+        private final List<CoverCell> cells = new ArrayList<>();
+
+        RowCell() {
+            setStyle("-fx-background-color: transparent; -fx-padding: 0 0 0 8;");
+        }
+
+        @Override
+        protected void updateItem(Integer row, boolean empty) {
+            super.updateItem(row, empty);
+            setText(null);
+            if (empty || row == null) {
+                cells.forEach(CoverCell::unbind);
+                setGraphic(null);
+                return;
+            }
+            while (cells.size() < columns) {
+                CoverCell c = new CoverCell();
+                cells.add(c);
+                box.getChildren().add(c);
+            }
+            int first = firstVisibleRow();
+            for (int c = 0; c < cells.size(); c++) {
+                CoverCell cell = cells.get(c);
+                int i = row * columns + c;
+                boolean used = c < columns && i < books.size();
+                if (used) cell.bind(books.get(i), Math.max(0, row - first) * columns + c);
+                else cell.unbind();
+                cell.setVisible(used);
+                cell.setManaged(used);
+            }
+            setGraphic(box);
+        }
+    }
+
+    /**
+     * Portada y título de un libro. Se asocia y desasocia de libros al reciclarse la fila.
+     */
+    private final class CoverCell extends VBox {
+        private final ImageView image = new ImageView();
+        private final StackPane coverBox = new StackPane();
+        private final Label placeholder = placeholder("");
+        private final Region swatch = new Region();
+        private final Label title = new Label();
+        private Path book;
+        private int boundGeneration;
+        private ThumbnailLoader.Request request;
+
+        CoverCell() {
+            super(8);
+            image.setPreserveRatio(true);
+            image.setFitHeight(COVER_HEIGHT);
+            coverBox.setMinHeight(COVER_HEIGHT);
+            swatch.setMinSize(SWATCH_WIDTH, COVER_HEIGHT);
+            swatch.setMaxSize(SWATCH_WIDTH, COVER_HEIGHT);
+            title.setWrapText(true);
+            title.setMaxWidth(CELL_WIDTH - 16);
+            title.setMaxHeight(40);
+            getChildren().addAll(coverBox, title);
+            setAlignment(Pos.TOP_CENTER);
+            setPadding(new Insets(8));
+            setMinWidth(CELL_WIDTH);
+            setPrefWidth(CELL_WIDTH);
+            setMaxWidth(CELL_WIDTH);
+            getStyleClass().add("thumb");
+            setOnMouseClicked(evt -> {
+                if (book != null && evt.getButton() == MouseButton.PRIMARY && evt.getClickCount() == 2) onOpen.accept(book);
+            });
+            setOnContextMenuRequested(e -> {
+                ContextMenu menu = book != null ? contextMenuFactory.apply(book) : null;
+                if (menu != null) menu.show(this, e.getScreenX(), e.getScreenY());
+            });
+        }
+
+        void bind(Path p, int priority) {
+            if (p.equals(book) && boundGeneration == generation) {
+                String known = titles.get(p);
+                if (known != null) title.setText(known);
+                return;
+            }
+            unbind();
+            book = p;
+            boundGeneration = generation;
+
+            String known = titles.get(p);
+            title.setText(known != null ? known : p.getFileName().toString());
+            CoverImageCache.Peek cached = covers.peek(p);
+            if (cached.present()) show(cached.image());
+            else showLoading(coverColorLookup.applyAsInt(p));
+            if (cached.present() && known != null) return;
+
+            request = loader.submit(priority,
+                    () -> new Loaded(cached.present() ? cached.image() : covers.get(p),
+                            known != null ? known : titleLoader.apply(p, IoScheduler.Priority.INTERACTIVE)),
+                    loaded -> {
+                        if (!p.equals(book)) return;
+                        request = null;
+                        if (loaded == null) {
+                            // Falló la carga: no dejar el hueco en "Cargando…" para siempre
+                            show(null);
+                            return;
+                        }
+                        titles.put(p, loaded.title());
+                        title.setText(loaded.title());
+                        show(loaded.cover());
+                    });
+        }
+
+        void unbind() {
+            if (request != null) request.cancel();
+            request = null;
+            book = null;
+            image.setImage(null);
+        }
+
+        private void showPlaceholder(String text) {
+            placeholder.setText(text);
+            coverBox.getChildren().setAll(placeholder);
+        }
+
+        private void showLoading(int color) {
+            if (color < 0) {
+                showPlaceholder("Cargando…");
+                return;
+            }
+            Color c = Color.rgb((color >> 16) & 0xFF, (color >> 8) & 0xFF, color & 0xFF);
+            swatch.setBackground(new Background(new BackgroundFill(c, new CornerRadii(6), Insets.EMPTY)));
+            coverBox.getChildren().setAll(swatch);
+        }
+
+        private void show(Image cover) {
+            if (cover != null) {
+                image.setImage(cover);
+                coverBox.getChildren().setAll(image);
+            } else {
+                String name = book.getFileName().toString().toLowerCase(Locale.ROOT);
+                showPlaceholder(MetadataExtractor.isMobi(name) ? "MOBI" : "Sin portada");
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package es.alepico.epuber.ui.common;
+
+import es.alepico.epuber.service.IoScheduler;
+import es.alepico.epuber.service.ThumbnailCache;
+import javafx.scene.image.Image;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Caché en memoria de portadas ya decodificadas, compartida por la galería de carátulas y la
+ * ventana clásica. El límite es de bytes de píxeles (ancho × alto × 4), no de entradas: una
+ * página de 60 portadas a 320 px ocupa unos 16 MB y el presupuesto por defecto guarda varias.
+ *
+ * Lo que sale del LRU por presupuesto no se pierde del todo: queda tras una
+ * {@link SoftReference}, que el recolector sólo libera si necesita memoria, así que volver a
+ * una página reciente suele salir gratis sin que la caché pueda provocar un OutOfMemoryError.
+ */
+public class CoverImageCache {
+
+    public static final long DEFAULT_BUDGET_BYTES = 96L * 1024 * 1024;
+    /** Coste nominal de recordar que un libro no tiene portada. */
+    private static final long NO_COVER_BYTES = 64;
+    /** Portada habitual a 320 px (unos 220 × 320 × 4), para no decodificar si ya no cabe. */
+    private static final long TYPICAL_COVER_BYTES = 220L * 320 * 4;
+
+    private static final CoverImageCache SHARED = new CoverImageCache(ThumbnailCache.shared(), DEFAULT_BUDGET_BYTES);
+
+    /**
+     * Contadores desde el arranque. {@code softHits} son aciertos rescatados de las
+     * referencias débiles tras salir del LRU; {@code prefetched}, portadas cargadas por adelantado.
+     */
+    public record Stats(long hits, long softHits, long misses, long prefetched, long bytes, long budgetBytes, int entries) {
+        public double hitRate() {
+            long total = hits + softHits + misses;
+            return total == 0 ? 0 : (hits + softHits) / (double) total;
+        }
+
+        public String describe() {
+            return String.format(Locale.ROOT, "Portadas en memoria: %d (%.1f/%.1f MB), aciertos %.0f%% (%d + %d recuperadas, %d fallos), %d precargadas",
+                    entries, bytes / 1_048_576.0, budgetBytes / 1_048_576.0, hitRate() * 100, hits, softHits, misses, prefetched);
+        }
+    }
+
+    /**
+     * Resultado de {@link #peek}: si el libro está en memoria y, en ese caso, su portada (null si
+     * se sabe que no tiene).
+     */
+    public record Peek(boolean present, Image image) {
+        private static final Peek MISS = new Peek(false, null);
+    }
+
+    /** {@code image == null}: el libro no tiene portada. Tamaño y fecha detectan cambios en el fichero. */
+    private record Entry(Image image, long size, long mtime, long bytes) { }
+
+    private final ThumbnailCache thumbs;
+    private final long budgetBytes;
+    private final LinkedHashMap<Path, Entry> lru = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<Path, SoftReference<Entry>> evicted = new HashMap<>();
+    private long bytes;
+    private long hits, softHits, misses, prefetched;
+
+    public CoverImageCache(ThumbnailCache thumbs, long budgetBytes) {
+        this.thumbs = thumbs;
+        this.budgetBytes = budgetBytes;
+    }
+
+    public static CoverImageCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Portada de la galería ({@link ThumbnailCache#GRID_HEIGHT} px), o null si el libro no tiene.
+     * Si no está en memoria la lee de la caché en disco o la genera, así que no se debe llamar
+     * desde el hilo de JavaFX.
+     */
+    public Image get(Path book) throws InterruptedException {
+        BasicFileAttributes a;
+        try {
+            a = Files.readAttributes(book, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+        long size = a.size(), mtime = a.lastModifiedTime().toMillis();
+        Entry e = lookup(book, size, mtime);
+        if (e != null) return e.image();
+
+        Path thumb = thumbs.get(book, ThumbnailCache.GRID_HEIGHT, IoScheduler.Priority.INTERACTIVE);
+        Image img = thumb == null ? null : new Image(thumb.toUri().toString());
+        if (img != null && img.isError()) img = null;
+        put(book, new Entry(img, size, mtime, img == null ? NO_COVER_BYTES : pixelBytes(img)));
+        return img;
+    }
+
+    /**
+     * Consulta sólo la memoria, sin tocar el disco, para el hilo de JavaFX. No comprueba si el
+     * fichero ha cambiado; eso lo hace {@link #get(Path)}.
+     */
+    public synchronized Peek peek(Path book) {
+        Entry e = lru.get(book);
+        if (e == null) return Peek.MISS;
+        hits++;
+        return new Peek(true, e.image());
+    }
+
+    /**
+     * Carga especulativa (páginas vecinas): deja la miniatura en disco con prioridad BACKGROUND y
+     * la decodifica en memoria sólo si cabe sin expulsar nada, para no sacar de la caché la página
+     * que se está viendo. No cuenta como acierto ni fallo. Devuelve true si quedó en memoria.
+     */
+    public boolean prefetch(Path book) throws InterruptedException {
+        BasicFileAttributes a;
+        try {
+            a = Files.readAttributes(book, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return false;
+        }
+        long size = a.size(), mtime = a.lastModifiedTime().toMillis();
+        synchronized (this) {
+            Entry e = lru.get(book);
+            if (e != null && e.size() == size && e.mtime() == mtime) return true;
+        }
+        Path thumb = thumbs.get(book, ThumbnailCache.GRID_HEIGHT, IoScheduler.Priority.BACKGROUND);
+        synchronized (this) {
+            if (bytes + TYPICAL_COVER_BYTES > budgetBytes) return false;
+        }
+        Image img = thumb == null ? null : new Image(thumb.toUri().toString());
+        if (img != null && img.isError()) img = null;
+        Entry e = new Entry(img, size, mtime, img == null ? NO_COVER_BYTES : pixelBytes(img));
+        synchronized (this) {
+            if (bytes + e.bytes() > budgetBytes || lru.containsKey(book)) return false;
+            prefetched++;
+            evicted.remove(book);
+            insert(book, e);
+            return true;
+        }
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, softHits, misses, prefetched, bytes, budgetBytes, lru.size());
+    }
+
+    public synchronized void clear() {
+        lru.clear();
+        evicted.clear();
+        bytes = 0;
+    }
+
+    private synchronized Entry lookup(Path book, long size, long mtime) {
+        Entry e = lru.get(book);
+        if (e != null && e.size() == size && e.mtime() == mtime) {
+            hits++;
+            return e;
+        }
+        SoftReference<Entry> ref = evicted.remove(book);
+        Entry soft = ref != null ? ref.get() : null;
+        if (soft != null && soft.size() == size && soft.mtime() == mtime) {
+            softHits++;
+            insert(book, soft);
+            return soft;
+        }
+        misses++;
+        return null;
+    }
+
+    private synchronized void put(Path book, Entry e) {
+        evicted.remove(book);
+        insert(book, e);
+    }
+
+    private void insert(Path book, Entry e) {
+        Entry old = lru.put(book, e);
+        if (old != null) bytes -= old.bytes();
+        bytes += e.bytes();
+        Iterator<Map.Entry<Path, Entry>> it = lru.entrySet().iterator();
+        while (bytes > budgetBytes && it.hasNext()) {
+            Map.Entry<Path, Entry> eldest = it.next();
+            if (eldest.getKey().equals(book)) continue; // Nunca la que se acaba de pedir
+            it.remove();
+            bytes -= eldest.getValue().bytes();
+            evicted.put(eldest.getKey(), new SoftReference<>(eldest.getValue()));
+        }
+        if (evicted.size() > lru.size() * 4 + 256) purgeCleared();
+    }
+
+    /**
+     * Quita del mapa las referencias que el recolector ya ha vaciado.
+     */
+    private void purgeCleared() {
+        evicted.values().removeIf(ref -> ref.get() == null);
+    }
+
+    private static long pixelBytes(Image img) {
+        return (long) img.getWidth() * (long) img.getHeight() * 4;
+    }
+}
@@ -0,0 +1,83 @@
+package es.alepico.epuber.ui.common;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Agrupa actualizaciones de la interfaz que llegan sueltas desde hilos de fondo (portadas que
+ * terminan de cargarse) y las aplica juntas una vez por fotograma desde un
+ * {@link AnimationTimer}, en lugar de un {@code Platform.runLater} por cada una. Así todas las
+ * que llegan entre dos fotogramas cuestan una sola pasada de CSS y layout.
+ *
+ * Si en un fotograma hay más trabajo del que cabe en {@link #FRAME_BUDGET_NANOS}, el resto pasa
+ * al siguiente para no congelar el desplazamiento. El temporizador se para en cuanto no queda
+ * nada pendiente.
+ */
+public class FrameBatcher {
+
+    /** Tiempo máximo por fotograma (la mitad de uno a 60 Hz). */
+    private static final long FRAME_BUDGET_NANOS = 8_000_000L;
+
+    private static final FrameBatcher SHARED = new FrameBatcher();
+
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    /** Temporizador en marcha o a punto de arrancar. */
+    private final AtomicBoolean running = new AtomicBoolean();
+    private long batches, applied;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override public void handle(long now) {
+            drain();
+        }
+    };
+
+    public static FrameBatcher shared() {
+        return SHARED;
+    }
+
+    /**
+     * Encola una actualización para el próximo fotograma. Se puede llamar desde cualquier hilo.
+     */
+    public void post(Runnable update) {
+        pending.add(update);
+        if (running.compareAndSet(false, true)) {
+            if (Platform.isFxApplicationThread()) timer.start();
+            else Platform.runLater(timer::start);
+        }
+    }
+
+    /** Fotogramas con trabajo y actualizaciones aplicadas desde el arranque. Sólo en el hilo de JavaFX. */
+    public String describe() {
+        return batches + " fotogramas, " + applied + " actualizaciones";
+    }
+
+    private void drain() {
+        long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+        int n = 0;
+        Runnable r;
+        while ((r = pending.poll()) != null) {
+            try {
+                r.run();
+            } catch (RuntimeException e) {
+                Thread t = Thread.currentThread();
+                t.getUncaughtExceptionHandler().uncaughtException(t, e);
+            }
+            n++;
+            if (System.nanoTime() > deadline) break;
+        }
+        if (n > 0) {
+            batches++;
+            applied += n;
+        }
+        if (pending.isEmpty()) {
+            timer.stop();
+            running.set(false);
+            // Algo pudo llegar entre la comprobación y el set: si nadie lo ha arrancado, seguir
+            if (!pending.isEmpty() && running.compareAndSet(false, true)) timer.start();
+        }
+    }
+}
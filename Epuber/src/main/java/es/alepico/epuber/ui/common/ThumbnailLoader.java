@@ -0,0 +1,126 @@
+package es.alepico.epuber.ui.common;
+
+import javafx.scene.image.Image;
+
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Carga de miniaturas en un grupo acotado de hilos con una cola de prioridad: primero lo que
+ * está en pantalla, en orden de posición. Un PDF lento ya no retiene a las portadas que vienen
+ * detrás, y las peticiones que dejan de interesar (la página cambió, la portada salió de la
+ * vista) se cancelan y salen de la cola sin llegar a ejecutarse.
+ *
+ * Los resultados no llegan cada uno con su {@code Platform.runLater}: se juntan por fotograma
+ * ({@link FrameBatcher}), así una página de portadas que terminan casi a la vez se coloca con
+ * unas pocas pasadas de layout en lugar de una por portada.
+ *
+ * Una petición ya en marcha no se interrumpe (cortar a medias la lectura de un libro podría
+ * dejar en la caché en disco un "sin portada" falso); sólo se descarta su resultado.
+ */
+public class ThumbnailLoader {
+
+    private static final ThumbnailLoader SHARED =
+            new ThumbnailLoader(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())));
+
+    /**
+     * Petición encolada. Menor prioridad = antes; a igual prioridad, por orden de llegada.
+     */
+    public final class Request implements Runnable, Comparable<Request> {
+        private final Callable<?> work;
+        private final Consumer<Object> onDone;
+        private final int priority;
+        private volatile long seq;
+        private volatile boolean cancelled;
+
+        @SuppressWarnings("unchecked")
+        private <T> Request(int priority, Callable<T> work, Consumer<T> onDone) {
+            this.priority = priority;
+            this.work = work;
+            this.onDone = (Consumer<Object>) onDone;
+        }
+
+        /**
+         * Saca la petición de la cola; si ya se está ejecutando, su resultado no se entrega.
+         */
+        public void cancel() {
+            cancelled = true;
+            pool.remove(this);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override public void run() {
+            if (cancelled) return;
+            Object result;
+            try {
+                result = work.call();
+            } catch (Exception e) {
+                result = null;
+            }
+            Object r = result;
+            delivery.post(() -> {
+                if (!cancelled) onDone.accept(r);
+            });
+        }
+
+        @Override public int compareTo(Request o) {
+            int c = Integer.compare(priority, o.priority);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final FrameBatcher delivery;
+    private final AtomicLong seq = new AtomicLong();
+
+    public ThumbnailLoader(int threads) {
+        this(threads, FrameBatcher.shared());
+    }
+
+    public ThumbnailLoader(int threads, FrameBatcher delivery) {
+        this.delivery = delivery;
+        AtomicInteger n = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "thumbnail-loader-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    public static ThumbnailLoader shared() {
+        return SHARED;
+    }
+
+    /**
+     * Encola un trabajo; {@code onDone} recibe el resultado (o null si falló) en el hilo de
+     * JavaFX, salvo que la petición se cancele antes. Los resultados se entregan agrupados por
+     * fotograma a través de {@link FrameBatcher}.
+     */
+    public <T> Request submit(int priority, Callable<T> work, Consumer<T> onDone) {
+        Request r = new Request(priority, work, onDone);
+        enqueue(r);
+        return r;
+    }
+
+    /**
+     * Portada de la galería a través de {@link CoverImageCache}.
+     */
+    public Request loadCover(Path book, int priority, Consumer<Image> onLoaded) {
+        return submit(priority, () -> CoverImageCache.shared().get(book), onLoaded);
+    }
+
+    private void enqueue(Request r) {
+        r.seq = seq.incrementAndGet();
+        pool.execute(r);
+    }
+}
@@ -1,5 +1,7 @@
 package es.alepico.epuber.ui.reader;
 
+import es.alepico.epuber.service.EpubPackage;
+import es.alepico.epuber.service.IoScheduler;
 import javafx.beans.value.ChangeListener;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -13,20 +15,18 @@ import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.input.KeyCode; // <--- IMPORTANTE: Añadido
 import javafx.scene.input.KeyEvent; // <--- IMPORTANTE: Añadido
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.*;
 import javafx.scene.web.WebEngine;
 import javafx.scene.web.WebView;
 import javafx.stage.Stage;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
 
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.*;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
-import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -120,9 +120,13 @@ public class ReaderWindow {
             }
         });
 
-        // Unzip + parse OPF
-        unzipToTemp(epubFile);
-        parseOpf();
+        // Unzip + parse OPF (el ZIP se abre una sola vez para ambas cosas)
+        try (IoScheduler.Permit permit = IoScheduler.shared().acquire(IoScheduler.Priority.INTERACTIVE, epubFile);
+             ZipFile zip = new ZipFile(epubFile.toFile())) {
+            EpubPackage pkg = EpubPackage.read(zip);
+            unzipToTemp(zip, permit);
+            loadSpine(pkg);
+        }
 
         buildToc(prettyNames(spineHrefs));
 
@@ -159,6 +163,12 @@ public class ReaderWindow {
             }
         });
         // -----------------------
+
+        // Mientras se lee, los trabajos de fondo (copias, conversiones) ceden el disco
+        IoScheduler io = IoScheduler.shared();
+        scene.addEventFilter(ScrollEvent.ANY, e -> io.noteUserActivity());
+        scene.addEventFilter(MouseEvent.MOUSE_PRESSED, e -> io.noteUserActivity());
+        scene.addEventFilter(KeyEvent.KEY_PRESSED, e -> io.noteUserActivity());
         
         stage.setScene(scene);
 
@@ -261,71 +271,27 @@ public class ReaderWindow {
         return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n","\\n") + "\"";
     }
 
-    private void unzipToTemp(Path epub) throws IOException {
+    private void unzipToTemp(ZipFile zip, IoScheduler.Permit permit) throws IOException {
         tempRoot = Files.createTempDirectory("epubreader_");
         tempRoot.toFile().deleteOnExit();
-        try (ZipFile zip = new ZipFile(epub.toFile())) {
-            Enumeration<? extends ZipEntry> entries = zip.entries();
-            while (entries.hasMoreElements()) {
-                ZipEntry ze = entries.nextElement();
-                Path out = tempRoot.resolve(ze.getName());
-                if (ze.isDirectory()) { Files.createDirectories(out); }
-                else {
-                    Files.createDirectories(out.getParent());
-                    try (InputStream is = zip.getInputStream(ze)) { Files.copy(is, out, StandardCopyOption.REPLACE_EXISTING); }
-                }
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry ze = entries.nextElement();
+            Path out = tempRoot.resolve(ze.getName()).normalize();
+            if (!out.startsWith(tempRoot)) continue; // Zip Slip
+            if (ze.isDirectory()) { Files.createDirectories(out); }
+            else {
+                Files.createDirectories(out.getParent());
+                try (InputStream is = permit.throttle(zip.getInputStream(ze))) { Files.copy(is, out, StandardCopyOption.REPLACE_EXISTING); }
             }
         }
     }
 
-    private void parseOpf() throws Exception {
-        // Busca container.xml -> OPF
-        Path container = tempRoot.resolve("META-INF/container.xml");
-        String opfPath = null;
-        if (Files.exists(container)) {
-            try (InputStream is = Files.newInputStream(container)) {
-                Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
-                NodeList n = doc.getElementsByTagName("rootfile");
-                for (int i=0;i<n.getLength();i++){
-                    var node=n.item(i);
-                    var attr=node.getAttributes()!=null? node.getAttributes().getNamedItem("full-path"):null;
-                    if (attr!=null){ opfPath = attr.getNodeValue(); break; }
-                }
-            }
-        }
-        if (opfPath==null) {
-            // fallback: primera .opf encontrada
-            try (Stream<Path> s = Files.walk(tempRoot)) {
-                Optional<Path> any = s.filter(p -> p.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".opf")).findFirst();
-                if (any.isPresent()) opfPath = tempRoot.relativize(any.get()).toString().replace('\\','/');
-            }
-        }
-        if (opfPath==null) throw new IOException("No se encontró el archivo OPF.");
-
-        Path opf = tempRoot.resolve(opfPath);
-        opfDir = opf.getParent();
-
-        // Parse OPF: manifest + spine
-        Map<String,String> manifest = new HashMap<>();
-        try (InputStream is = Files.newInputStream(opf)) {
-            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
-            doc.getDocumentElement().normalize();
-
-            NodeList items = doc.getElementsByTagName("item");
-            for (int i=0;i<items.getLength();i++){
-                var it=items.item(i); var attrs=it.getAttributes(); if (attrs==null) continue;
-                var idAttr=attrs.getNamedItem("id"); var hrefAttr=attrs.getNamedItem("href");
-                if (idAttr!=null && hrefAttr!=null) manifest.put(idAttr.getNodeValue(), hrefAttr.getNodeValue());
-            }
-
-            NodeList itemrefs = doc.getElementsByTagName("itemref");
-            spineHrefs.clear();
-            for (int i=0;i<itemrefs.getLength();i++){
-                var ref=itemrefs.item(i); var attrs=ref.getAttributes(); if (attrs==null) continue;
-                var idref=attrs.getNamedItem("idref"); if (idref==null) continue;
-                String href = manifest.get(idref.getNodeValue());
-                if (href!=null && isHtmlLike(href)) spineHrefs.add(normalize(href));
-            }
+    private void loadSpine(EpubPackage pkg) throws IOException {
+        opfDir = tempRoot.resolve(pkg.getOpfDir()).normalize();
+        spineHrefs.clear();
+        for (EpubPackage.ManifestItem item : pkg.getSpine()) {
+            if (isHtmlLike(item.href())) spineHrefs.add(normalize(item.href()));
         }
         if (spineHrefs.isEmpty()) throw new IOException("Spine vacío o no soportado.");
     }
@@ -2,6 +2,7 @@ package es.alepico.epuber.ui.tabs;
 
 import es.alepico.epuber.model.BookMetadata;
 import es.alepico.epuber.service.PdfService;
+import es.alepico.epuber.service.ProgressAggregator;
 import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.scene.control.*;
@@ -60,10 +61,12 @@ public class ConverterTab extends Tab {
 
         Task<Void> task = new Task<>() {
             @Override protected Void call() throws Exception {
-                service.convert(src, dst, meta, true, 300, new PdfService.ProgressListener() {
-                    @Override public void onMessage(String msg) { updateMessage(msg); }
-                    @Override public void onProgress(long d, long t) { updateProgress(d,t); }
-                });
+                try (ProgressAggregator progress = new ProgressAggregator(s -> {
+                    updateProgress(s.itemsDone(), Math.max(s.itemsTotal(), 1));
+                    updateMessage(s.describe());
+                })) {
+                    service.convert(src, dst, meta, true, 300, progress.asPdfListener());
+                }
                 return null;
             }
         };
@@ -1,196 +1,361 @@
 package es.alepico.epuber.ui.tabs;
 
+import es.alepico.epuber.model.BookInfo;
+import es.alepico.epuber.model.BookMetadata;
+import es.alepico.epuber.service.EpubMetadataWriter;
+import es.alepico.epuber.service.IoScheduler;
+import es.alepico.epuber.service.MetadataCache;
+import es.alepico.epuber.service.MetadataService;
+import es.alepico.epuber.service.MetadataStore;
+import es.alepico.epuber.service.OpenLibraryIndex;
+import es.alepico.epuber.service.ProgressAggregator;
+import es.alepico.epuber.service.ThumbnailCache;
+import es.alepico.epuber.ui.common.CoverGrid;
+import es.alepico.epuber.ui.common.CoverImageCache;
+import es.alepico.epuber.ui.common.FrameBatcher;
 import es.alepico.epuber.ui.reader.ReaderWindow;
+import es.alepico.epuber.util.StringUtil;
 import javafx.application.Platform;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
-import javafx.scene.Node;
 import javafx.scene.control.*;
-import javafx.scene.image.Image;
-import javafx.scene.image.ImageView;
-import javafx.scene.input.MouseButton;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.BorderPane;
-import javafx.scene.layout.FlowPane;
+import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
-import javafx.scene.layout.VBox;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.rendering.PDFRenderer;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
+import javafx.stage.FileChooser;
 
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.awt.Desktop;
-import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class CoversTab extends Tab {
 
-    private final FlowPane coversPane = new FlowPane();
-    private final Label pageInfo = new Label("Página 0/0");
-    private final Button prevBtn = new Button("◀ Anterior");
-    private final Button nextBtn = new Button("Siguiente ▶");
-    private final ComboBox<Integer> pageSizeCombo = new ComboBox<>();
+    private final CoverGrid grid = new CoverGrid();
+    private final Label countLabel = new Label("0 libros");
+    private final MenuButton metadataMenu = new MenuButton("Metadatos");
 
     private List<Path> files = List.of();
-    private boolean hasScanned = false;
-    private int pageSize = 30;
-    private int currentPage = 1;
-    private javafx.concurrent.Task<?> currentTask;
+    private final Tooltip statsTip = new Tooltip();
+    private final IoScheduler io = IoScheduler.shared();
+    private final MetadataStore store = MetadataStore.shared();
+    private final ThumbnailCache thumbs = ThumbnailCache.shared();
+    private final CoverImageCache coverImages = CoverImageCache.shared();
+    private Thread prewarmThread;
+    /** Búsquedas en OpenLibrary; se crea al usarla y se rehace tras importar un volcado. */
+    private MetadataService lookups;
 
     public CoversTab() {
         super("Carátulas");
         setClosable(false);
 
-        pageSizeCombo.getItems().addAll(20, 30, 50, 60);
-        pageSizeCombo.setValue(pageSize);
-        pageSizeCombo.valueProperty().addListener((obs, oldV, newV) -> {
-            pageSize = newV == null ? 30 : newV;
-            currentPage = 1;
-            renderPage();
+        MenuItem importItem = new MenuItem("Importar .metadata.txt de la lista");
+        importItem.setOnAction(e -> transferSidecars(true));
+        MenuItem exportItem = new MenuItem("Exportar .metadata.txt de la lista");
+        exportItem.setOnAction(e -> transferSidecars(false));
+        MenuItem writeItem = new MenuItem("Escribir ediciones dentro de los EPUB");
+        writeItem.setOnAction(e -> writeEditsIntoEpubs());
+        MenuItem dumpItem = new MenuItem("Importar volcado de OpenLibrary…");
+        dumpItem.setOnAction(e -> importOpenLibraryDump());
+        metadataMenu.getItems().addAll(importItem, exportItem, new SeparatorMenuItem(), writeItem,
+                new SeparatorMenuItem(), dumpItem);
+
+        grid.setTitleLoader(this::prettyTitle);
+        grid.setCoverColorLookup(MetadataCache.shared()::coverColor);
+        grid.setOnOpen(this::openFile);
+        grid.setContextMenuFactory(file -> {
+            MenuItem editItem = new MenuItem("Editar metadatos…");
+            editItem.setOnAction(e -> openMetadataEditor(file));
+            return new ContextMenu(editItem);
         });
+        grid.setPlaceholder(new Label("Selecciona una carpeta en Biblioteca y escanea para ver carátulas."));
 
-        prevBtn.setOnAction(e -> {
-            if (currentPage > 1) {
-                currentPage--;
-                renderPage();
-            }
-        });
-        nextBtn.setOnAction(e -> {
-            if (currentPage < getTotalPages()) {
-                currentPage++;
-                renderPage();
-            }
-        });
+        countLabel.setTooltip(statsTip);
+        statsTip.setOnShowing(e -> statsTip.setText(coverImages.stats().describe()
+                + "\nEntregadas en " + FrameBatcher.shared().describe()));
 
-        coversPane.setHgap(18);
-        coversPane.setVgap(18);
-        coversPane.setPadding(new Insets(18));
-
-        HBox pager = new HBox(10,
-                new Label("Por página:"),
-                pageSizeCombo,
-                prevBtn,
-                pageInfo,
-                nextBtn
-        );
-        pager.setAlignment(Pos.CENTER_LEFT);
-        pager.setPadding(new Insets(12, 18, 6, 18));
+        HBox toolbar = new HBox(10, countLabel, metadataMenu);
+        toolbar.setAlignment(Pos.CENTER_LEFT);
+        toolbar.setPadding(new Insets(12, 18, 6, 18));
 
         BorderPane layout = new BorderPane();
-        layout.setTop(pager);
-        layout.setCenter(new ScrollPane(coversPane));
+        layout.setTop(toolbar);
+        layout.setCenter(grid);
+        // Mientras el usuario navega por la galería, las copias y conversiones ceden el disco
+        layout.addEventFilter(ScrollEvent.ANY, e -> io.noteUserActivity());
+        layout.addEventFilter(MouseEvent.MOUSE_PRESSED, e -> io.noteUserActivity());
+        layout.addEventFilter(KeyEvent.KEY_PRESSED, e -> io.noteUserActivity());
 
         setContent(layout);
-        renderPage();
     }
 
     public void updateFiles(List<Path> newFiles) {
         Runnable update = () -> {
-            files = new ArrayList<>(Optional.ofNullable(newFiles).orElse(List.of()));
-            hasScanned = true;
-            currentPage = 1;
-            renderPage();
+            files = List.copyOf(Optional.ofNullable(newFiles).orElse(List.of()));
+            countLabel.setText(files.size() + " libros");
+            grid.setPlaceholder(new Label("No se encontraron libros en el último escaneo."));
+            grid.setBooks(files);
+            startPrewarm();
         };
         if (Platform.isFxApplicationThread()) update.run(); else Platform.runLater(update);
     }
 
-    private void renderPage() {
-        if (currentTask != null && currentTask.isRunning()) {
-            currentTask.cancel();
-        }
-        coversPane.getChildren().clear();
-
-        if (files.isEmpty()) {
-            pageInfo.setText("Página 0/0");
-            prevBtn.setDisable(true);
-            nextBtn.setDisable(true);
-            String msg = hasScanned
-                    ? "No se encontraron libros en el último escaneo."
-                    : "Selecciona una carpeta en Biblioteca y escanea para ver carátulas.";
-            coversPane.getChildren().add(new Label(msg));
-            return;
-        }
+    /**
+     * Tras un escaneo genera en segundo plano las miniaturas que falten, para que desplazarse
+     * por la rejilla no tenga que abrir los libros.
+     */
+    private void startPrewarm() {
+        if (prewarmThread != null) prewarmThread.interrupt();
+        List<Path> snapshot = List.copyOf(files);
+        if (snapshot.isEmpty()) return;
+        prewarmThread = new Thread(() -> {
+            try {
+                thumbs.prewarm(snapshot, ThumbnailCache.GRID_HEIGHT);
+            } catch (InterruptedException e) {
+                // Nueva lista o cierre de la aplicación
+            }
+        }, "thumbnail-prewarm");
+        prewarmThread.setDaemon(true);
+        prewarmThread.start();
+    }
 
-        int totalPages = getTotalPages();
-        if (currentPage > totalPages) currentPage = totalPages;
+    private String prettyTitle(Path file, IoScheduler.Priority priority) {
+        return store.apply(file, MetadataCache.shared().get(file, priority)).getDisplayName();
+    }
 
-        pageInfo.setText("Página " + currentPage + "/" + totalPages);
-        prevBtn.setDisable(currentPage <= 1);
-        nextBtn.setDisable(currentPage >= totalPages);
+    // ===== Edición de metadatos =====
+
+    /**
+     * Lee la edición guardada (hash del contenido) y los metadatos del libro (puede que haya que
+     * extraerlos) en segundo plano y abre el editor cuando están.
+     */
+    private void openMetadataEditor(Path file) {
+        Thread t = new Thread(() -> {
+            BookMetadata edited = store.get(file);
+            BookInfo info = MetadataCache.shared().get(file);
+            Platform.runLater(() -> showMetadataEditor(file, edited, info));
+        }, "metadata-editor-load");
+        t.setDaemon(true);
+        t.start();
+    }
 
-        int start = (currentPage - 1) * pageSize;
-        int end = Math.min(start + pageSize, files.size());
-        List<Path> page = files.subList(start, end);
+    private void showMetadataEditor(Path file, BookMetadata edited, BookInfo info) {
+        BookMetadata meta = edited != null ? edited : new BookMetadata(info.title, null);
+        if (edited == null) meta.authors.addAll(info.authors);
+
+        TextField titleField = new TextField(meta.title);
+        TextField authorField = new TextField(meta.getAuthorString());
+        TextField tagsField = new TextField(String.join(", ", meta.tags));
+        TextArea synopsisArea = new TextArea(meta.synopsis != null ? meta.synopsis : "");
+        synopsisArea.setPrefRowCount(5);
+
+        GridPane form = new GridPane();
+        form.setHgap(10);
+        form.setVgap(8);
+        form.addRow(0, new Label("Título"), titleField);
+        form.addRow(1, new Label("Autor"), authorField);
+        form.addRow(2, new Label("Etiquetas"), tagsField);
+        form.addRow(3, new Label("Sinopsis"), synopsisArea);
+        Button lookupBtn = new Button("Buscar en OpenLibrary");
+        Label lookupStatus = new Label();
+        form.addRow(4, lookupBtn, lookupStatus);
+        lookupBtn.setOnAction(e -> {
+            lookupBtn.setDisable(true);
+            lookupStatus.setText("Buscando…");
+            String isbn = info.ids.get("isbn");
+            String title = titleField.getText(), author = authorField.getText();
+            Thread t = new Thread(() -> {
+                MetadataService service = lookups();
+                (isbn != null ? service.lookupIsbnAsync(isbn) : service.lookupAsync(title, author))
+                        .whenComplete((found, err) -> Platform.runLater(() -> {
+                            lookupBtn.setDisable(false);
+                            if (err != null) {
+                                lookupStatus.setText("Sin conexión con OpenLibrary");
+                            } else if (found.isEmpty()) {
+                                lookupStatus.setText("No encontrado");
+                            } else {
+                                // Sólo completa lo que está vacío: nunca pisa lo escrito a mano
+                                BookMetadata m = found.get();
+                                if (authorField.getText().isBlank()) authorField.setText(m.getAuthorString());
+                                if (synopsisArea.getText().isBlank() && m.synopsis != null) synopsisArea.setText(m.synopsis);
+                                if (meta.date == null) meta.date = m.date;
+                                lookupStatus.setText("Encontrado: " + m.title);
+                            }
+                        }));
+            }, "metadata-lookup");
+            t.setDaemon(true);
+            t.start();
+        });
 
-        javafx.concurrent.Task<Void> task = new javafx.concurrent.Task<>() {
-            @Override
-            protected Void call() {
-                for (Path p : page) {
-                    if (isCancelled()) break;
-                    Node thumb = buildThumb(p);
-                    Platform.runLater(() -> coversPane.getChildren().add(thumb));
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Metadatos del libro");
+        dialog.setHeaderText(file.getFileName().toString());
+        dialog.getDialogPane().setContent(form);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        dialog.setResizable(true);
+
+        dialog.showAndWait().filter(bt -> bt == ButtonType.OK).ifPresent(bt -> {
+            meta.title = StringUtil.defaultIfBlank(titleField.getText(), "(Sin título)");
+            meta.authors = StringUtil.parseList(authorField.getText(), ";");
+            meta.tags = StringUtil.parseList(tagsField.getText(), ",");
+            meta.synopsis = StringUtil.blankToNull(synopsisArea.getText());
+            Thread t = new Thread(() -> {
+                try {
+                    store.put(file, meta);
+                    String name = prettyTitle(file, IoScheduler.Priority.INTERACTIVE);
+                    Platform.runLater(() -> grid.setTitle(file, name));
+                } catch (IOException ex) {
+                    showAlert(Alert.AlertType.ERROR, "No se pudieron guardar los metadatos:\n" + ex.getMessage());
                 }
-                return null;
-            }
-        };
-        currentTask = task;
-        new Thread(task, "covers-page-loader").start();
+            }, "metadata-store-save");
+            t.setDaemon(true);
+            t.start();
+        });
     }
 
-    private int getTotalPages() {
-        if (files.isEmpty()) return 0;
-        return (int) Math.ceil(files.size() / (double) pageSize);
+    private synchronized MetadataService lookups() {
+        if (lookups == null) lookups = new MetadataService();
+        return lookups;
     }
 
-    private Node buildThumb(Path file) {
-        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
-        Image cover = null;
-        if (name.endsWith(".epub")) cover = loadEpubCover(file);
-        else if (name.endsWith(".pdf")) cover = renderPdfFirstPage(file);
-
-        Label title = new Label(prettyTitle(file));
-        title.setWrapText(true);
-        title.setMaxWidth(220);
-
-        VBox box;
-        if (cover != null) {
-            ImageView iv = new ImageView(cover);
-            iv.setPreserveRatio(true);
-            iv.setFitHeight(260);
-            box = new VBox(8, iv, title);
-        } else {
-            Label placeholder = new Label(name.endsWith(".mobi") ? "MOBI" : "Sin portada");
-            placeholder.setMinSize(180, 240);
-            placeholder.setAlignment(Pos.CENTER);
-            placeholder.setStyle("-fx-border-color:#cbd5e1; -fx-border-radius:10; -fx-padding:10; -fx-background-radius:10; -fx-background-color: rgba(0,0,0,0.02);");
-            box = new VBox(8, placeholder, title);
-        }
+    /**
+     * Construye el índice local de OpenLibrary a partir de un volcado descargado de
+     * openlibrary.org/developers/dumps. Desde entonces las búsquedas lo consultan antes que la red.
+     */
+    private void importOpenLibraryDump() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Volcado de OpenLibrary (ediciones u obras)");
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Volcados", "*.gz", "*.txt", "*.jsonl"),
+                new FileChooser.ExtensionFilter("Todos los archivos", "*.*"));
+        File dump = chooser.showOpenDialog(getTabPane() != null ? getTabPane().getScene().getWindow() : null);
+        if (dump == null) return;
+        metadataMenu.setDisable(true);
+        Thread t = new Thread(() -> {
+            try (ProgressAggregator progress = new ProgressAggregator(s ->
+                    Platform.runLater(() -> countLabel.setText("Importando OpenLibrary: " + s.describe())))) {
+                Path index = OpenLibraryIndex.newDefaultLocation();
+                OpenLibraryIndex.ImportStats stats = OpenLibraryIndex.build(dump.toPath(), index, progress.asImportListener());
+                MetadataService old;
+                synchronized (this) {
+                    old = lookups;
+                    lookups = null; // La próxima búsqueda abre el índice nuevo
+                }
+                if (old != null) {
+                    try {
+                        old.close();
+                    } catch (IOException ignored) {
+                        // Sólo se pierde el cierre ordenado del índice viejo
+                    }
+                }
+                OpenLibraryIndex.pruneDefault(index);
+                showAlert(Alert.AlertType.INFORMATION, "Volcado de OpenLibrary importado: " + stats.describe());
+            } catch (IOException ex) {
+                showAlert(Alert.AlertType.ERROR, "No se pudo importar el volcado:\n" + ex.getMessage());
+            } finally {
+                Platform.runLater(() -> {
+                    metadataMenu.setDisable(false);
+                    countLabel.setText(files.size() + " libros");
+                });
+            }
+        }, "openlibrary-import");
+        t.setDaemon(true);
+        t.start();
+    }
 
-        box.setAlignment(Pos.TOP_CENTER);
-        box.setPadding(new Insets(8));
-        box.getStyleClass().add("thumb");
-        box.setOnMouseClicked(evt -> {
-            if (evt.getButton() == MouseButton.PRIMARY && evt.getClickCount() == 2) openFile(file);
-        });
-        return box;
+    /**
+     * Importa o exporta los .metadata.txt de todos los libros del último escaneo.
+     */
+    private void transferSidecars(boolean importing) {
+        List<Path> snapshot = List.copyOf(files);
+        if (snapshot.isEmpty()) return;
+        metadataMenu.setDisable(true);
+        Thread t = new Thread(() -> {
+            try {
+                int n = importing ? store.importSidecars(snapshot, false) : store.exportSidecars(snapshot);
+                showAlert(Alert.AlertType.INFORMATION, importing
+                        ? n + " archivos .metadata.txt importados al almacén de metadatos."
+                        : n + " archivos .metadata.txt escritos.");
+                if (importing && n > 0) Platform.runLater(grid::reload);
+            } catch (IOException ex) {
+                showAlert(Alert.AlertType.ERROR, "Error con los archivos .metadata.txt:\n" + ex.getMessage());
+            } finally {
+                Platform.runLater(() -> metadataMenu.setDisable(false));
+            }
+        }, "metadata-sidecars");
+        t.setDaemon(true);
+        t.start();
     }
 
-    private String prettyTitle(Path file) {
-        String base = file.getFileName().toString().replaceFirst("\\.[^.]+$", "");
-        String[] parts = base.split("\\s+-\\s+", 2);
-        if (parts.length == 2) return parts[0].trim() + " — " + parts[1].trim();
-        return base;
+    /**
+     * Lleva las ediciones del almacén al OPF de cada EPUB de la lista que tenga alguna. Tras
+     * escribirlo el fichero cambia (y con él su identidad en el almacén), así que la clave de cada
+     * edición se toma antes y la edición se retira por esa clave cuando su libro ya está escrito;
+     * si falla o se interrumpe, sigue pendiente para el siguiente intento.
+     */
+    private void writeEditsIntoEpubs() {
+        List<Path> snapshot = List.copyOf(files);
+        metadataMenu.setDisable(true);
+        Thread t = new Thread(() -> {
+            try {
+                // Buscar las ediciones puede leer cada libro (resumen del contenido): fuera del hilo de JavaFX
+                Map<Path, BookMetadata> edits = new LinkedHashMap<>();
+                Map<Path, String> keys = new HashMap<>();
+                for (Path p : snapshot) {
+                    if (!p.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".epub")) continue;
+                    String key = store.keyOf(p);
+                    BookMetadata m = key != null ? store.get(p) : null;
+                    if (m == null) continue;
+                    edits.put(p, m);
+                    keys.put(p, key);
+                }
+                if (edits.isEmpty()) {
+                    showAlert(Alert.AlertType.INFORMATION, "Ningún EPUB de la lista tiene metadatos editados.");
+                    return;
+                }
+                AtomicReference<IOException> storeError = new AtomicReference<>();
+                EpubMetadataWriter.Report report;
+                try (ProgressAggregator progress = new ProgressAggregator(s ->
+                        Platform.runLater(() -> countLabel.setText("Escribiendo metadatos: " + s.describe())))) {
+                    progress.setTotal(edits.size());
+                    report = new EpubMetadataWriter().writeAll(edits, progress.asMetadataWriterListener(new EpubMetadataWriter.Listener() {
+                        @Override
+                        public void onWritten(Path file) {
+                            try {
+                                store.forget(keys.get(file));
+                            } catch (IOException ex) {
+                                // Volver a aplicarla más tarde deja el mismo resultado
+                                storeError.compareAndSet(null, ex);
+                            }
+                        }
+                    }));
+                }
+                showAlert(report.failed() == 0 ? Alert.AlertType.INFORMATION : Alert.AlertType.WARNING, report.describe());
+                if (storeError.get() != null) {
+                    showAlert(Alert.AlertType.ERROR, "No se pudo actualizar el almacén de metadatos:\n" + storeError.get().getMessage());
+                }
+                Platform.runLater(grid::reload);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                Platform.runLater(() -> {
+                    metadataMenu.setDisable(false);
+                    countLabel.setText(files.size() + " libros");
+                });
+            }
+        }, "epub-metadata-writer");
+        t.setDaemon(true);
+        t.start();
     }
 
     private void openFile(Path file) {
@@ -208,111 +373,6 @@ public class CoversTab extends Tab {
         }
     }
 
-    private Image loadEpubCover(Path epubPath) {
-        try (ZipFile zip = new ZipFile(epubPath.toFile())) {
-            String opfPath = findOpfPath(zip);
-            if (opfPath == null) return null;
-            String coverHref = findCoverHref(zip, opfPath);
-            if (coverHref == null) return null;
-            String baseDir = opfPath.contains("/") ? opfPath.substring(0, opfPath.lastIndexOf('/') + 1) : "";
-            String coverPath = normalizeZipPath(baseDir + coverHref);
-            ZipEntry imgEntry = zip.getEntry(coverPath);
-            if (imgEntry == null) imgEntry = zip.getEntry(coverHref);
-            if (imgEntry == null) return null;
-            try (InputStream is = zip.getInputStream(imgEntry)) {
-                return new Image(is, 0, 320, true, true);
-            }
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
-    private Image renderPdfFirstPage(Path pdfPath) {
-        try (PDDocument doc = PDDocument.load(pdfPath.toFile())) {
-            PDFRenderer renderer = new PDFRenderer(doc);
-            BufferedImage img = renderer.renderImageWithDPI(0, 130f);
-            return SwingFXUtils.toFXImage(img, null);
-        } catch (IOException e) {
-            return null;
-        }
-    }
-
-    private String findOpfPath(ZipFile zip) throws Exception {
-        ZipEntry container = zip.getEntry("META-INF/container.xml");
-        if (container == null) {
-            var en = zip.entries();
-            while (en.hasMoreElements()) {
-                ZipEntry z = en.nextElement();
-                if (!z.isDirectory() && z.getName().toLowerCase(Locale.ROOT).endsWith(".opf")) return z.getName();
-            }
-            return null;
-        }
-        try (InputStream is = zip.getInputStream(container)) {
-            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
-            NodeList n = doc.getElementsByTagName("rootfile");
-            for (int i = 0; i < n.getLength(); i++) {
-                var node = n.item(i);
-                var attr = node.getAttributes() != null ? node.getAttributes().getNamedItem("full-path") : null;
-                if (attr != null) return attr.getNodeValue();
-            }
-        }
-        return null;
-    }
-
-    private String findCoverHref(ZipFile zip, String opfPath) throws Exception {
-        ZipEntry opfEntry = zip.getEntry(opfPath);
-        if (opfEntry == null) return null;
-        try (InputStream is = zip.getInputStream(opfEntry)) {
-            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
-            doc.getDocumentElement().normalize();
-            NodeList meta = doc.getElementsByTagName("meta");
-            String coverId = null;
-            for (int i = 0; i < meta.getLength(); i++) {
-                var m = meta.item(i);
-                var attrs = m.getAttributes();
-                if (attrs == null) continue;
-                var nameAttr = attrs.getNamedItem("name");
-                var contentAttr = attrs.getNamedItem("content");
-                if (nameAttr != null && "cover".equalsIgnoreCase(nameAttr.getNodeValue()) && contentAttr != null) {
-                    coverId = contentAttr.getNodeValue();
-                    break;
-                }
-            }
-            NodeList items = doc.getElementsByTagName("item");
-            String hrefById = null, hrefByProp = null, hrefByGuess = null;
-            for (int i = 0; i < items.getLength(); i++) {
-                var it = items.item(i);
-                var attrs = it.getAttributes();
-                if (attrs == null) continue;
-                var idAttr = attrs.getNamedItem("id");
-                var hrefAttr = attrs.getNamedItem("href");
-                var propsAttr = attrs.getNamedItem("properties");
-                var mtAttr = attrs.getNamedItem("media-type");
-                String id = idAttr != null ? idAttr.getNodeValue() : null;
-                String href = hrefAttr != null ? hrefAttr.getNodeValue() : null;
-                String props = propsAttr != null ? propsAttr.getNodeValue() : "";
-                String mt = mtAttr != null ? mtAttr.getNodeValue() : "";
-                if (coverId != null && coverId.equals(id) && href != null) hrefById = href;
-                if (props != null && props.toLowerCase(Locale.ROOT).contains("cover-image") && href != null) hrefByProp = href;
-                if (href != null && mt != null && mt.startsWith("image/") && href.toLowerCase(Locale.ROOT).contains("cover")) hrefByGuess = href;
-            }
-            if (hrefById != null) return hrefById;
-            if (hrefByProp != null) return hrefByProp;
-            return hrefByGuess;
-        }
-    }
-
-    private String normalizeZipPath(String p) {
-        Deque<String> stack = new ArrayDeque<>();
-        for (String part : p.split("/")) {
-            if (part.isEmpty() || ".".equals(part)) continue;
-            if ("..".equals(part)) {
-                if (!stack.isEmpty()) stack.removeLast();
-            } else stack.addLast(part);
-        }
-        return String.join("/", stack);
-    }
-
     private void showAlert(Alert.AlertType type, String msg) {
         Runnable r = () -> {
             Alert a = new Alert(type, msg, ButtonType.OK);
@@ -1,18 +1,147 @@
 package es.alepico.epuber.ui.tabs;
 
+import es.alepico.epuber.service.IdentifierIndex;
+import es.alepico.epuber.service.MetadataCache;
+import es.alepico.epuber.service.MetadataStore;
+import javafx.application.Platform;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.scene.control.*;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
 public class DuplicatesTab extends Tab {
+
+    /** El tamaño se lee al construir la fila, en segundo plano, no al pintar cada celda. */
+    private record Row(String key, Path file, String size) { }
+
+    /** Filas y texto de estado de una consulta. */
+    private record Shown(List<Row> rows, String status) { }
+
+    private final TableView<Row> table = new TableView<>();
+    private final Label status = new Label("Escanea una carpeta en Biblioteca.");
+    private final Button scanBtn = new Button("Buscar Duplicados");
+    private final TextField idField = new TextField();
+    private List<Path> files = List.of();
+    /** Índice de la última lista escaneada; se construye al primer uso. */
+    private IdentifierIndex index;
+
     public DuplicatesTab(Stage stage) {
         super("Duplicados");
         setClosable(false);
-        TableView<?> table = new TableView<>();
-        Button scanBtn = new Button("Buscar Duplicados");
-        VBox root = new VBox(10, new Label("Buscador de archivos repetidos"), scanBtn, table);
+
+        TableColumn<Row, String> colKey = new TableColumn<>("Identificador");
+        colKey.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().key()));
+        TableColumn<Row, String> colFile = new TableColumn<>("Fichero");
+        colFile.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().file().toString()));
+        TableColumn<Row, String> colSize = new TableColumn<>("Tamaño");
+        colSize.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().size()));
+        table.getColumns().setAll(List.of(colKey, colFile, colSize));
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+        VBox.setVgrow(table, Priority.ALWAYS);
+
+        scanBtn.setOnAction(e -> {
+            int listed = files.size();
+            withIndex(idx -> duplicates(idx, listed));
+        });
+        idField.setPromptText("ISBN, ASIN, UUID o DOI");
+        idField.setOnAction(e -> lookup());
+        Button findBtn = new Button("Buscar");
+        findBtn.setOnAction(e -> lookup());
+
+        VBox root = new VBox(10,
+                new Label("Buscador de archivos repetidos por identificador (ISBN, ASIN, UUID, DOI)"),
+                new HBox(10, scanBtn, idField, findBtn, status),
+                table);
         root.setPadding(new Insets(20));
         setContent(root);
     }
-}
\ No newline at end of file
+
+    public void updateFiles(List<Path> newFiles) {
+        Runnable update = () -> {
+            files = List.copyOf(Optional.ofNullable(newFiles).orElse(List.of()));
+            index = null;
+            table.getItems().clear();
+            status.setText(files.size() + " libros en la lista.");
+        };
+        if (Platform.isFxApplicationThread()) update.run(); else Platform.runLater(update);
+    }
+
+    /**
+     * Resuelve la consulta en segundo plano, construyendo antes el índice si hace falta (tras el
+     * enriquecimiento de la Biblioteca los metadatos ya están en caché), y muestra el resultado.
+     */
+    private void withIndex(Function<IdentifierIndex, Shown> query) {
+        if (files.isEmpty()) {
+            status.setText("No hay libros: escanea una carpeta en Biblioteca.");
+            return;
+        }
+        List<Path> snapshot = files;
+        IdentifierIndex known = index;
+        AtomicReference<IdentifierIndex> built = new AtomicReference<>(known);
+        Task<Shown> task = new Task<>() {
+            @Override protected Shown call() {
+                if (known == null) built.set(IdentifierIndex.build(snapshot, MetadataCache.shared(), MetadataStore.shared()));
+                return query.apply(built.get());
+            }
+        };
+        scanBtn.setDisable(true);
+        if (known == null) status.setText("Indexando identificadores...");
+        task.setOnSucceeded(e -> {
+            scanBtn.setDisable(false);
+            if (snapshot != files) return; // La lista cambió mientras tanto
+            index = built.get();
+            table.getItems().setAll(task.getValue().rows());
+            status.setText(task.getValue().status());
+        });
+        task.setOnFailed(e -> {
+            scanBtn.setDisable(false);
+            status.setText("Error al indexar: " + task.getException().getMessage());
+        });
+        Thread t = new Thread(task, "identifier-index");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static Shown duplicates(IdentifierIndex idx, int listed) {
+        List<Row> rows = new ArrayList<>();
+        List<IdentifierIndex.Group> groups = idx.duplicateGroups();
+        for (IdentifierIndex.Group g : groups) {
+            String key = String.join(", ", g.sharedKeys());
+            for (Path p : g.files()) rows.add(new Row(key, p, formatSize(p)));
+        }
+        return new Shown(rows, String.format(Locale.ROOT, "%d grupos de duplicados (%d libros con identificador de %d).",
+                groups.size(), idx.size(), listed));
+    }
+
+    private void lookup() {
+        String q = idField.getText();
+        if (q == null || q.isBlank()) return;
+        withIndex(idx -> {
+            List<Row> rows = new ArrayList<>();
+            for (Path p : idx.find(q)) rows.add(new Row(q.trim(), p, formatSize(p)));
+            return new Shown(rows, rows.isEmpty() ? "Ningún libro con ese identificador." : rows.size() + " libros con ese identificador.");
+        });
+    }
+
+    private static String formatSize(Path p) {
+        try {
+            return String.format(Locale.ROOT, "%.2f MB", Files.size(p) / 1_048_576.0);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+}
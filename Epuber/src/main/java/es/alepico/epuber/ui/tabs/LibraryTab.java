@@ -1,7 +1,11 @@
 package es.alepico.epuber.ui.tabs;
 
 import es.alepico.epuber.model.ConversionConfig;
+import es.alepico.epuber.service.CatalogExporter;
 import es.alepico.epuber.service.LibraryService;
+import es.alepico.epuber.service.MetadataCache;
+import es.alepico.epuber.service.MetadataEnricher;
+import es.alepico.epuber.service.ProgressAggregator;
 import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.concurrent.Task;
@@ -14,12 +18,11 @@ import javafx.stage.Stage;
 import javafx.util.Duration;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.function.Consumer;
 
 public class LibraryTab extends Tab {
@@ -34,7 +37,11 @@ public class LibraryTab extends Tab {
     private final List<Path> scannedFiles = new ArrayList<>();
     private final Label statusLabel;
     private final LibraryService service = new LibraryService();
+    private final MetadataEnricher enricher = new MetadataEnricher();
     private Task<?> currentTask;
+    private Task<?> enrichTask;
+    /** Tarea cuyo progreso muestran la etiqueta de estado y la barra. */
+    private Task<?> statusOwner;
     private Consumer<List<Path>> scanFinishedListener;
 
     public LibraryTab(Stage stage) {
@@ -50,7 +57,7 @@ public class LibraryTab extends Tab {
 
         extEpub = new CheckBox(".epub"); extEpub.setSelected(true);
         extPdf = new CheckBox(".pdf"); extPdf.setSelected(true);
-        extMobi = new CheckBox(".mobi");
+        extMobi = new CheckBox(".mobi/.azw3");
         keywordField = new TextField(); keywordField.setPromptText("Buscar nombre...");
 
         fromDate = new DatePicker(); toDate = new DatePicker();
@@ -146,6 +153,7 @@ public class LibraryTab extends Tab {
 
         ConversionConfig cfg = buildScanConfig();
         if(cfg == null) return;
+        if(enrichTask != null) enrichTask.cancel();
 
         scanBtn.setDisable(true);
         startBtn.setDisable(true);
@@ -163,8 +171,7 @@ public class LibraryTab extends Tab {
         };
 
         currentTask = scanTask;
-        statusLabel.textProperty().bind(scanTask.messageProperty());
-        progressBar.progressProperty().bind(scanTask.progressProperty());
+        showProgress(scanTask);
 
         scanTask.setOnSucceeded(e -> finishScan(scanTask.getValue(), "Escaneo completado."));
         scanTask.setOnCancelled(e -> finishScan(List.of(), "Escaneo cancelado."));
@@ -184,7 +191,7 @@ public class LibraryTab extends Tab {
         cfg.extensions = new HashSet<>();
         if(extEpub.isSelected()) cfg.extensions.add(".epub");
         if(extPdf.isSelected()) cfg.extensions.add(".pdf");
-        if(extMobi.isSelected()) cfg.extensions.add(".mobi");
+        if(extMobi.isSelected()) cfg.extensions.addAll(List.of(".mobi", ".azw3", ".azw"));
         if(cfg.extensions.isEmpty()) { log("Selecciona al menos una extensión de archivo."); return null; }
         cfg.keyword = keywordField.getText();
         cfg.fromDate = fromDate.getValue();
@@ -225,8 +232,7 @@ public class LibraryTab extends Tab {
         startBtn.getStyleClass().add("button-danger");
         saveListBtn.setDisable(true);
         scanBtn.setDisable(true);
-        progressBar.progressProperty().bind(task.progressProperty());
-        statusLabel.textProperty().bind(task.messageProperty());
+        showProgress(task);
 
         task.setOnSucceeded(e -> finishCopy(task.getValue(), "Proceso terminado."));
         task.setOnCancelled(e -> finishCopy(task.getValue(), "Cancelado."));
@@ -237,9 +243,7 @@ public class LibraryTab extends Tab {
 
     private void finishScan(List<Path> files, String msg) {
         Runnable uiUpdate = () -> {
-            statusLabel.textProperty().unbind();
-            progressBar.progressProperty().unbind();
-            progressBar.setProgress(0);
+            releaseProgress(statusOwner, msg);
             currentTask = null;
 
             scannedFiles.clear();
@@ -256,16 +260,52 @@ public class LibraryTab extends Tab {
 
             log(msg);
             log("Documentos encontrados: " + files.size());
-            statusLabel.setText(msg);
+            if (hasResults) startEnrichment(List.copyOf(scannedFiles));
         };
 
         if (Platform.isFxApplicationThread()) uiUpdate.run(); else Platform.runLater(uiUpdate);
     }
 
+    /**
+     * Extrae en segundo plano los metadatos de todo lo escaneado para que filtros, galería
+     * y listados no tengan que analizar cada libro al vuelo.
+     */
+    private void startEnrichment(List<Path> files) {
+        Task<MetadataEnricher.Report> task = new Task<>() {
+            @Override protected MetadataEnricher.Report call() throws Exception {
+                updateMessage("Leyendo metadatos...");
+                MetadataEnricher.Report report;
+                try (ProgressAggregator progress = new ProgressAggregator(s -> {
+                    updateProgress(s.itemsDone(), Math.max(s.itemsTotal(), 1));
+                    updateMessage("Metadatos: " + s.describe());
+                })) {
+                    progress.setTotal(files.size());
+                    report = enricher.enrich(files, progress.asEnricherListener(file ->
+                            Platform.runLater(() -> log("Sin respuesta al leer metadatos: " + file.getFileName()))));
+                }
+                MetadataCache.shared().save();
+                return report;
+            }
+        };
+        enrichTask = task;
+        showProgress(task);
+        task.setOnSucceeded(e -> {
+            releaseProgress(task, "Metadatos listos.");
+            log("Metadatos: " + task.getValue().describe());
+        });
+        task.setOnCancelled(e -> releaseProgress(task, "Lectura de metadatos cancelada."));
+        task.setOnFailed(e -> {
+            releaseProgress(task, "Error al leer metadatos.");
+            log("Error al leer metadatos: " + task.getException().getMessage());
+        });
+
+        Thread t = new Thread(task, "metadata-enricher");
+        t.setDaemon(true);
+        t.start();
+    }
+
     private void finishCopy(LibraryService.ScanResult res, String msg) {
-        statusLabel.textProperty().unbind();
-        progressBar.progressProperty().unbind();
-        progressBar.setProgress(0);
+        releaseProgress(statusOwner, msg);
         startBtn.setText("Iniciar Copia");
         startBtn.getStyleClass().remove("button-danger");
         currentTask = null;
@@ -278,7 +318,27 @@ public class LibraryTab extends Tab {
         log(String.format("Encontrados: %d | Copiados: %d | Omitidos: %d", res.found, res.copied, res.skipped));
         if(res.error != null) log("Error: " + res.error.getMessage());
         if(res.cancelled) log("Proceso cancelado por el usuario.");
+    }
+
+    /**
+     * Enlaza la etiqueta de estado y la barra al progreso de una tarea. La última que se enlaza
+     * manda; las anteriores siguen en marcha pero dejan de mostrarse.
+     */
+    private void showProgress(Task<?> task) {
+        statusOwner = task;
+        statusLabel.textProperty().bind(task.messageProperty());
+        progressBar.progressProperty().bind(task.progressProperty());
+    }
 
+    /**
+     * Suelta la etiqueta y la barra con un mensaje final, salvo que ya las muestre otra tarea.
+     */
+    private void releaseProgress(Task<?> task, String msg) {
+        if (task != statusOwner) return;
+        statusOwner = null;
+        statusLabel.textProperty().unbind();
+        progressBar.progressProperty().unbind();
+        progressBar.setProgress(0);
         statusLabel.setText(msg);
     }
 
@@ -308,30 +368,43 @@ public class LibraryTab extends Tab {
 
         FileChooser chooser = new FileChooser();
         chooser.setTitle("Guardar listado de libros");
-        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Texto", "*.txt"));
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Texto", "*.txt"),
+                new FileChooser.ExtensionFilter("CSV", "*.csv"),
+                new FileChooser.ExtensionFilter("JSON", "*.json"),
+                new FileChooser.ExtensionFilter("JSON Lines", "*.jsonl"));
         chooser.setInitialFileName("listado.txt");
         File dest = chooser.showSaveDialog(stage);
         if(dest == null) return;
 
-        try {
-            List<String> lines = scannedFiles.stream()
-                    .map(Path::getFileName)
-                    .map(Path::toString)
-                    .map(this::formatTitleAndAuthor)
-                    .toList();
-            Files.write(dest.toPath(), lines);
-            log("Listado guardado en: " + dest.getAbsolutePath());
-        } catch (IOException e) {
-            log("No se pudo guardar el listado: " + e.getMessage());
-        }
-    }
-
-    private String formatTitleAndAuthor(String fileName) {
-        String baseName = fileName.replaceFirst("\\.[^.]+$", "");
-        String[] parts = baseName.split("\\s+-\\s+", 2);
-        String title = parts[0].trim();
-        String author = parts.length > 1 ? parts[1].trim() : "Autor desconocido";
-        return title + " - " + author;
+        // Se escribe en streaming mientras se extraen los metadatos (los cacheados no se releen)
+        List<Path> files = List.copyOf(scannedFiles);
+        Path out = dest.toPath();
+        CatalogExporter.Format format = CatalogExporter.Format.forFile(out);
+        Task<Integer> task = new Task<>() {
+            @Override protected Integer call() throws Exception {
+                try (ProgressAggregator progress = new ProgressAggregator(s -> {
+                    updateProgress(s.itemsDone(), Math.max(s.itemsTotal(), 1));
+                    updateMessage("Exportando: " + s.describe());
+                })) {
+                    progress.setTotal(files.size());
+                    return new CatalogExporter().export(files, out, format, progress.asExportListener());
+                }
+            }
+        };
+        log("Exportando " + files.size() + " libros (" + format.name().toLowerCase(Locale.ROOT) + ")...");
+        showProgress(task);
+        task.setOnSucceeded(e -> {
+            releaseProgress(task, "Listado guardado.");
+            log("Listado guardado en: " + dest.getAbsolutePath() + " (" + task.getValue() + " libros)");
+        });
+        task.setOnFailed(e -> {
+            releaseProgress(task, "No se pudo guardar el listado.");
+            log("No se pudo guardar el listado: " + task.getException().getMessage());
+        });
+        Thread t = new Thread(task, "list-export");
+        t.setDaemon(true);
+        t.start();
     }
 
     private class LibraryCopyTask extends Task<LibraryService.ScanResult> {
@@ -346,10 +419,14 @@ public class LibraryTab extends Tab {
         @Override protected LibraryService.ScanResult call() {
             updateMessage("Copiando...");
             updateProgress(0, Math.max(files.size(), 1));
-            return service.copyFiles(files, cfg, new LibraryService.LibraryListener() {
-                @Override public void onProgress(int c, int t, String m) { updateProgress(c, t); updateMessage(m); }
-                @Override public void onLog(String m) { logFromTask(m); }
-            });
+            // El progreso se muestrea a 20 Hz en lugar de actualizar la UI por cada fichero
+            try (ProgressAggregator progress = new ProgressAggregator(s -> {
+                updateProgress(s.itemsDone(), Math.max(s.itemsTotal(), 1));
+                updateMessage(s.describe());
+            })) {
+                progress.setTotal(files.size());
+                return service.copyFiles(files, cfg, progress.asLibraryListener(this::logFromTask));
+            }
         }
 
         private void logFromTask(String msg) { Platform.runLater(() -> log(msg)); }
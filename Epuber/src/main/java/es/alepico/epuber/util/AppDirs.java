@@ -0,0 +1,39 @@
+package es.alepico.epuber.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Ubicación de los datos locales de la aplicación (cachés, índices, almacén de metadatos).
+ * Por defecto {@code ~/.epuber}; se puede cambiar con la propiedad de sistema {@code epuber.home}.
+ */
+public class AppDirs {
+
+    private AppDirs() {
+        // Evitar instanciación
+    }
+
+    /**
+     * Directorio raíz de datos. Se crea si no existe.
+     */
+    public static Path dataDir() {
+        String custom = System.getProperty("epuber.home");
+        Path dir = (custom != null && !custom.isBlank())
+                ? Path.of(custom)
+                : Path.of(System.getProperty("user.home"), ".epuber");
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException ignored) {
+            // Si no se puede crear, los que escriban en él recibirán el error
+        }
+        return dir;
+    }
+
+    /**
+     * Resuelve un fichero o subdirectorio dentro del directorio de datos.
+     */
+    public static Path resolve(String name) {
+        return dataDir().resolve(name);
+    }
+}
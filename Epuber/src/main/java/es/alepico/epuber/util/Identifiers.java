@@ -0,0 +1,98 @@
+package es.alepico.epuber.util;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Normalización de identificadores de libro (ISBN, ASIN, UUID, DOI) leídos de
+ * {@code dc:identifier}, XMP o EXTH, que llegan con esquemas y formatos dispares
+ * ("opf:scheme=ISBN", "urn:isbn:...", "urn:uuid:...", "mobi-asin"...).
+ *
+ * Tras normalizar, las claves canónicas son {@code isbn} (ISBN-13 validado), {@code asin}
+ * (mayúsculas), {@code uuid} (minúsculas, sin prefijo) y {@code doi} (minúsculas); el resto de
+ * esquemas se conservan tal cual con la clave en minúsculas.
+ */
+public class Identifiers {
+
+    public static final String ISBN = "isbn", ASIN = "asin", UUID = "uuid", DOI = "doi";
+
+    private static final Pattern UUID_PATTERN =
+            Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+    private static final Pattern ASIN_PATTERN = Pattern.compile("B0[0-9A-Z]{8}");
+    private static final Pattern DOI_PATTERN = Pattern.compile("10\\.\\d{4,9}/\\S+");
+
+    private Identifiers() {
+        // Evitar instanciación
+    }
+
+    /**
+     * Devuelve un mapa nuevo con los identificadores canónicos primero. Si hay varios ISBN se
+     * queda con el primero válido; un ISBN con dígito de control incorrecto se descarta.
+     */
+    public static Map<String, String> normalize(Map<String, String> raw) {
+        Map<String, String> out = new LinkedHashMap<>();
+        Map<String, String> others = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : raw.entrySet()) {
+            String scheme = e.getKey() == null ? "" : e.getKey().toLowerCase(Locale.ROOT).trim();
+            String value = e.getValue() == null ? "" : e.getValue().trim();
+            if (value.isEmpty()) continue;
+            String[] canonical = canonical(scheme, value);
+            if (canonical != null) out.putIfAbsent(canonical[0], canonical[1]);
+            else if (!scheme.equals(ISBN)) others.putIfAbsent(scheme, value);
+        }
+        others.forEach(out::putIfAbsent);
+        return out;
+    }
+
+    /**
+     * Forma canónica de un único identificador, o null si no es un tipo reconocido.
+     * Sirve también para normalizar lo que el usuario escribe en una búsqueda.
+     */
+    public static String normalize(String type, String value) {
+        if (value == null) return null;
+        String[] c = canonical(type == null ? "" : type.toLowerCase(Locale.ROOT), value.trim());
+        return c != null && c[0].equals(type) ? c[1] : null;
+    }
+
+    /**
+     * Clave única "tipo:valor" para índices.
+     */
+    public static String key(String type, String value) {
+        return type + ":" + value;
+    }
+
+    private static String[] canonical(String scheme, String value) {
+        String low = value.toLowerCase(Locale.ROOT);
+        switch (scheme) {
+            case "uuid", "calibre", "uid" -> {
+                String u = low.startsWith("urn:uuid:") ? low.substring(9) : low;
+                if (UUID_PATTERN.matcher(u).matches()) return new String[] { UUID, u };
+            }
+            case "asin", "mobi-asin", "amazon", "amazon_asin" -> {
+                String a = value.toUpperCase(Locale.ROOT);
+                if (ASIN_PATTERN.matcher(a).matches()) return new String[] { ASIN, a };
+                // Los ASIN de libros impresos son el ISBN-10
+                String isbn = Isbn.normalize(a);
+                if (isbn != null) return new String[] { ISBN, isbn };
+                return null;
+            }
+            case "doi" -> {
+                String d = low.startsWith("doi:") ? low.substring(4) : low;
+                if (DOI_PATTERN.matcher(d).matches()) return new String[] { DOI, d };
+            }
+            default -> { }
+        }
+        // Sin esquema fiable: se reconoce por el propio valor
+        String isbn = Isbn.normalize(value);
+        if (isbn != null) return new String[] { ISBN, isbn };
+        if (low.startsWith("urn:uuid:") && UUID_PATTERN.matcher(low.substring(9)).matches()) {
+            return new String[] { UUID, low.substring(9) };
+        }
+        if (UUID_PATTERN.matcher(low).matches()) return new String[] { UUID, low };
+        if (low.startsWith("doi:") && DOI_PATTERN.matcher(low.substring(4)).matches()) return new String[] { DOI, low.substring(4) };
+        if (DOI_PATTERN.matcher(low).matches()) return new String[] { DOI, low };
+        return null;
+    }
+}
@@ -0,0 +1,85 @@
+package es.alepico.epuber.util;
+
+import java.util.Locale;
+
+/**
+ * Normalización de ISBN: quita guiones y espacios y convierte ISBN-10 a ISBN-13.
+ */
+public class Isbn {
+
+    private Isbn() {
+        // Evitar instanciación
+    }
+
+    /**
+     * ISBN-13 sólo con dígitos, o null si el texto no contiene un ISBN-10/13 reconocible.
+     * Acepta prefijos como "ISBN" o "urn:isbn:". No comprueba el dígito de control; para
+     * identificadores leídos de los libros usar {@link #normalize(String)}.
+     */
+    public static String toIsbn13(String raw) {
+        if (raw == null) return null;
+        StringBuilder sb = new StringBuilder(13);
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c >= '0' && c <= '9') sb.append(c);
+            else if ((c == 'X' || c == 'x') && sb.length() == 9) sb.append('X');
+        }
+        if (sb.length() == 13 && sb.charAt(12) != 'X') return sb.toString();
+        if (sb.length() != 10) return null;
+
+        String core = "978" + sb.substring(0, 9);
+        return core + check13(core);
+    }
+
+    /**
+     * ISBN-13 canónico si el texto es un ISBN-10 o ISBN-13 con dígito de control correcto;
+     * null en otro caso. Más estricto que {@link #toIsbn13(String)}: sólo admite dígitos,
+     * guiones y espacios tras un prefijo opcional ("ISBN", "ISBN-13:", "urn:isbn:"...), así que
+     * un UUID o un número cualquiera con 10 o 13 cifras no pasa por ISBN.
+     */
+    public static String normalize(String raw) {
+        if (raw == null) return null;
+        String s = stripPrefix(raw.trim());
+        StringBuilder sb = new StringBuilder(13);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') sb.append(c);
+            else if ((c == 'X' || c == 'x') && sb.length() == 9 && i == s.length() - 1) sb.append('X');
+            else if (c != '-' && c != ' ') return null;
+        }
+        if (sb.length() == 13) {
+            if (!sb.toString().startsWith("978") && !sb.toString().startsWith("979")) return null;
+            return check13(sb.substring(0, 12)) == sb.charAt(12) - '0' ? sb.toString() : null;
+        }
+        if (sb.length() == 10 && check10(sb.substring(0, 9)) == sb.charAt(9)) {
+            String core = "978" + sb.substring(0, 9);
+            return core + check13(core);
+        }
+        return null;
+    }
+
+    public static boolean isValid(String raw) {
+        return normalize(raw) != null;
+    }
+
+    private static String stripPrefix(String s) {
+        String low = s.toLowerCase(Locale.ROOT);
+        for (String p : new String[] { "urn:isbn:", "isbn-13:", "isbn-10:", "isbn13:", "isbn10:", "isbn:", "isbn" }) {
+            if (low.startsWith(p)) return s.substring(p.length()).trim();
+        }
+        return s;
+    }
+
+    private static int check13(String first12) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) sum += (first12.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        return (10 - sum % 10) % 10;
+    }
+
+    private static char check10(String first9) {
+        int sum = 0;
+        for (int i = 0; i < 9; i++) sum += (first9.charAt(i) - '0') * (10 - i);
+        int c = (11 - sum % 11) % 11;
+        return c == 10 ? 'X' : (char) ('0' + c);
+    }
+}
@@ -0,0 +1,353 @@
+package es.alepico.epuber.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Lector JSON en streaming (estilo "pull"), sin dependencias externas.
+ * Recorre el documento token a token sin construir un árbol, de modo que se puede leer
+ * sólo lo que interesa y saltar el resto con {@link #skipValue()} sin crear cadenas.
+ *
+ * <pre>
+ * r.beginObject();
+ * while (r.hasNext()) {
+ *     switch (r.nextName()) {
+ *         case "title" -> title = r.nextString();
+ *         default -> r.skipValue();
+ *     }
+ * }
+ * r.endObject();
+ * </pre>
+ */
+public final class JsonReader implements Closeable {
+
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    private static final int EMPTY_ARRAY = 1, NONEMPTY_ARRAY = 2, EMPTY_OBJECT = 3, DANGLING_NAME = 4,
+            NONEMPTY_OBJECT = 5, EMPTY_DOCUMENT = 6, NONEMPTY_DOCUMENT = 7;
+
+    private final Reader in;
+    private char[] buf;
+    private int pos, limit;
+    private long consumed;
+    private int[] stack = new int[32];
+    private int depth;
+    private Token peeked;
+    private final StringBuilder sb = new StringBuilder(64);
+
+    public JsonReader(Reader in) {
+        this.in = in;
+        this.buf = new char[8192];
+        push(EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Lector sobre una cadena ya en memoria (p. ej. una línea de un volcado JSON Lines).
+     */
+    public JsonReader(String json) {
+        this.in = null;
+        this.buf = json.toCharArray();
+        this.limit = buf.length;
+        push(EMPTY_DOCUMENT);
+    }
+
+    // ===== Navegación =====
+
+    public Token peek() throws IOException {
+        if (peeked != null) return peeked;
+        int scope = stack[depth - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY, NONEMPTY_ARRAY -> {
+                c = nextNonWhitespace();
+                if (c == ']') return peeked = Token.END_ARRAY;
+                if (scope == NONEMPTY_ARRAY) {
+                    if (c != ',') throw syntax("se esperaba ',' o ']'");
+                    c = nextNonWhitespace();
+                }
+                return peeked = valueStart(c);
+            }
+            case EMPTY_OBJECT, NONEMPTY_OBJECT -> {
+                c = nextNonWhitespace();
+                if (c == '}') return peeked = Token.END_OBJECT;
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') throw syntax("se esperaba ',' o '}'");
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') throw syntax("se esperaba un nombre");
+                return peeked = Token.NAME;
+            }
+            case DANGLING_NAME -> {
+                if (nextNonWhitespace() != ':') throw syntax("se esperaba ':'");
+                return peeked = valueStart(nextNonWhitespace());
+            }
+            case EMPTY_DOCUMENT -> {
+                c = nextNonWhitespace();
+                return peeked = c < 0 ? Token.END_DOCUMENT : valueStart(c);
+            }
+            default -> {
+                if (nextNonWhitespace() >= 0) throw syntax("datos tras el final del documento");
+                return peeked = Token.END_DOCUMENT;
+            }
+        }
+    }
+
+    /**
+     * Indica si quedan elementos en el objeto o array actual.
+     */
+    public boolean hasNext() throws IOException {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        valueConsumed();
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        valueConsumed();
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        String name = readString();
+        stack[depth - 1] = DANGLING_NAME;
+        return name;
+    }
+
+    /**
+     * Cadena o, si el valor es numérico, su representación textual.
+     */
+    public String nextString() throws IOException {
+        Token t = peek();
+        String s;
+        if (t == Token.STRING) s = readString();
+        else if (t == Token.NUMBER) s = readLiteral();
+        else throw syntax("se esperaba una cadena y hay " + t);
+        peeked = null;
+        valueConsumed();
+        return s;
+    }
+
+    public long nextLong() throws IOException {
+        Token t = peek();
+        if (t != Token.NUMBER && t != Token.STRING) throw syntax("se esperaba un número y hay " + t);
+        String s = t == Token.STRING ? readString() : readLiteral();
+        peeked = null;
+        valueConsumed();
+        try {
+            return s.indexOf('.') >= 0 || s.indexOf('e') >= 0 || s.indexOf('E') >= 0
+                    ? (long) Double.parseDouble(s) : Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw syntax("número no válido: " + s);
+        }
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        String s = readLiteral();
+        valueConsumed();
+        if ("true".equals(s)) return true;
+        if ("false".equals(s)) return false;
+        throw syntax("literal no válido: " + s);
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+        String s = readLiteral();
+        valueConsumed();
+        if (!"null".equals(s)) throw syntax("literal no válido: " + s);
+    }
+
+    /**
+     * Salta el siguiente valor completo (objetos y arrays incluidos) sin crear cadenas.
+     */
+    public void skipValue() throws IOException {
+        int nesting = 0;
+        do {
+            Token t = peek();
+            switch (t) {
+                case BEGIN_OBJECT -> { beginObject(); nesting++; }
+                case BEGIN_ARRAY -> { beginArray(); nesting++; }
+                case END_OBJECT -> { endObject(); nesting--; }
+                case END_ARRAY -> { endArray(); nesting--; }
+                case NAME -> {
+                    peeked = null;
+                    skipString();
+                    stack[depth - 1] = DANGLING_NAME;
+                }
+                case STRING -> {
+                    peeked = null;
+                    skipString();
+                    valueConsumed();
+                }
+                case NUMBER, BOOLEAN, NULL -> {
+                    peeked = null;
+                    skipLiteral();
+                    valueConsumed();
+                }
+                case END_DOCUMENT -> throw syntax("fin inesperado del documento");
+            }
+        } while (nesting > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) in.close();
+    }
+
+    // ===== Internos =====
+
+    private void expect(Token t) throws IOException {
+        Token actual = peek();
+        if (actual != t) throw syntax("se esperaba " + t + " y hay " + actual);
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = scope;
+    }
+
+    /**
+     * Actualiza el ámbito actual tras leer un valor completo (o el inicio de uno anidado).
+     */
+    private void valueConsumed() {
+        int scope = stack[depth - 1];
+        if (scope == EMPTY_ARRAY) stack[depth - 1] = NONEMPTY_ARRAY;
+        else if (scope == DANGLING_NAME) stack[depth - 1] = NONEMPTY_OBJECT;
+        else if (scope == EMPTY_DOCUMENT) stack[depth - 1] = NONEMPTY_DOCUMENT;
+    }
+
+    private Token valueStart(int c) throws IOException {
+        switch (c) {
+            case '{': return Token.BEGIN_OBJECT;
+            case '[': return Token.BEGIN_ARRAY;
+            case '"': return Token.STRING;
+            case 't', 'f': pos--; return Token.BOOLEAN;
+            case 'n': pos--; return Token.NULL;
+            case -1: throw syntax("fin inesperado del documento");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    pos--;
+                    return Token.NUMBER;
+                }
+                throw syntax("carácter inesperado '" + (char) c + "'");
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (pos < limit || fill()) {
+            char c = buf[pos++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+        }
+        return -1;
+    }
+
+    private boolean fill() throws IOException {
+        if (in == null) return false;
+        consumed += limit;
+        pos = 0;
+        limit = 0;
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) == 0) { /* reintentar */ }
+        if (n < 0) return false;
+        limit = n;
+        return true;
+    }
+
+    /**
+     * Lee una cadena cuya comilla de apertura ya se ha consumido.
+     */
+    private String readString() throws IOException {
+        // Camino rápido: cadena sin escapes entera en el búfer
+        for (int i = pos; i < limit; i++) {
+            char c = buf[i];
+            if (c == '"') {
+                String s = new String(buf, pos, i - pos);
+                pos = i + 1;
+                return s;
+            }
+            if (c == '\\') break;
+        }
+        sb.setLength(0);
+        while (true) {
+            if (pos >= limit && !fill()) throw syntax("cadena sin cerrar");
+            char c = buf[pos++];
+            if (c == '"') return sb.toString();
+            if (c == '\\') sb.append(readEscape());
+            else sb.append(c);
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            if (pos >= limit && !fill()) throw syntax("cadena sin cerrar");
+            char c = buf[pos++];
+            if (c == '"') return;
+            if (c == '\\') readEscape();
+        }
+    }
+
+    private char readEscape() throws IOException {
+        if (pos >= limit && !fill()) throw syntax("escape sin terminar");
+        char e = buf[pos++];
+        return switch (e) {
+            case 'n' -> '\n';
+            case 't' -> '\t';
+            case 'r' -> '\r';
+            case 'b' -> '\b';
+            case 'f' -> '\f';
+            case 'u' -> {
+                int v = 0;
+                for (int i = 0; i < 4; i++) {
+                    if (pos >= limit && !fill()) throw syntax("escape \\u sin terminar");
+                    int d = Character.digit(buf[pos++], 16);
+                    if (d < 0) throw syntax("escape \\u no válido");
+                    v = (v << 4) | d;
+                }
+                yield (char) v;
+            }
+            default -> e; // \" \\ \/
+        };
+    }
+
+    private String readLiteral() throws IOException {
+        sb.setLength(0);
+        while (pos < limit || fill()) {
+            char c = buf[pos];
+            if (isDelimiter(c)) break;
+            sb.append(c);
+            pos++;
+        }
+        return sb.toString();
+    }
+
+    private void skipLiteral() throws IOException {
+        while ((pos < limit || fill()) && !isDelimiter(buf[pos])) pos++;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private IOException syntax(String msg) {
+        return new IOException("JSON no válido (posición " + (consumed + pos) + "): " + msg);
+    }
+}
@@ -100,4 +100,35 @@ public class StringUtil {
             return null;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Escapa barras, tabuladores y saltos de línea para guardar un campo en un fichero tabulado.
+     */
+    public static String escapeTsv(String s) {
+        if (s == null) return "";
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    /**
+     * Inverso de {@link #escapeTsv(String)}.
+     */
+    public static String unescapeTsv(String s) {
+        if (s.indexOf('\\') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                sb.append(switch (n) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> n;
+                });
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}